@@ -0,0 +1,97 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.tests.TestAWSLatencies;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Latency matrices the benchmarks of the decision engine run on
+ *
+ * @author cb
+ */
+public class BenchmarkMatrices {
+
+    public static final String AWS = "aws";
+    public static final String SYNTHETIC = "synthetic";
+
+    private static final String CLOUDPING = "./data/cloudPing/cloudping.csv";
+    private static final int REGIONS = 21;
+
+    // Latency between two replicas placed in the same AWS region, in the unit of the cloudping matrix
+    private static final long SAME_REGION_LATENCY = 1000;
+
+    /**
+     * Creates a symmetric latency matrix
+     *
+     * @param source AWS (measured latencies between AWS regions) or SYNTHETIC (random latencies)
+     * @param n      system size
+     * @return latency matrix
+     * @throws IOException if the AWS latencies can not be read
+     */
+    public static long[][] create(String source, int n) throws IOException {
+        return AWS.equals(source) ? aws(n) : synthetic(n, 42);
+    }
+
+    /**
+     * AWS latencies: replica i is placed in region i mod 21, hence systems with more than 21 replicas place several
+     * replicas in the same region
+     */
+    public static long[][] aws(int n) throws IOException {
+        long[][] regions = TestAWSLatencies.readMatrix(CLOUDPING, REGIONS, REGIONS, ",");
+        long[][] m = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int r = i % REGIONS;
+                int s = j % REGIONS;
+                if (i == j) {
+                    m[i][j] = 0;
+                } else if (r == s) {
+                    m[i][j] = SAME_REGION_LATENCY;
+                } else {
+                    m[i][j] = Math.max(regions[r][s], regions[s][r]);
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Random symmetric latencies, the same for every run with the same seed
+     */
+    public static long[][] synthetic(int n, long seed) {
+        Random random = new Random(seed);
+        long[][] m = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                long latency = 1000 + random.nextInt(300000);
+                m[i][j] = latency;
+                m[j][i] = latency;
+            }
+        }
+        return m;
+    }
+
+    public static int[] replicaSet(int n) {
+        int[] replicaSet = new int[n];
+        for (int i = 0; i < n; i++) {
+            replicaSet[i] = i;
+        }
+        return replicaSet;
+    }
+
+    /**
+     * The search strategies of the simulator print their results, which should not be measured
+     */
+    public static PrintStream silence() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        return out;
+    }
+}
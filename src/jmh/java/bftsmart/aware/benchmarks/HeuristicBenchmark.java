@@ -0,0 +1,72 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.Simulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heuristic searches used for larger systems
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HeuristicBenchmark {
+
+    @Param({"10", "13", "21", "31", "40"})
+    public int n;
+
+    @Param({BenchmarkMatrices.AWS, BenchmarkMatrices.SYNTHETIC})
+    public String source;
+
+    @Param({"4"})
+    public int chains;
+
+    private long[][] m;
+    private int[] replicaSet;
+    private int f;
+    private int delta;
+    private int u;
+
+    private ForkJoinPool pool;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Exception {
+        f = (n - 1) / 3;
+        delta = n - (3 * f + 1);
+        u = 2 * f;
+        m = BenchmarkMatrices.create(source, n);
+        replicaSet = BenchmarkMatrices.replicaSet(n);
+        pool = new ForkJoinPool(chains);
+        out = BenchmarkMatrices.silence();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public Simulator.SimulationRun simulatedAnnealing() {
+        return Simulator.simulatedAnnealing(n, f, delta, u, replicaSet, m, m, 0);
+    }
+
+    @Benchmark
+    public Simulator.SimulationRun tabuSearch() {
+        return Simulator.tabuSearch(n, f, delta, u, replicaSet, m, m, 1160, 0);
+    }
+
+    @Benchmark
+    public Simulator.SimulationRun multiStartSimulatedAnnealing() {
+        return Simulator.multiStartSimulatedAnnealing(n, f, delta, u, replicaSet, m, m, 0, chains, 0, 0, pool);
+    }
+}
@@ -0,0 +1,54 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.WeightConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency prediction of a single configuration
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredictLatencyBenchmark {
+
+    @Param({"4", "7", "10", "13", "21", "31", "40"})
+    public int n;
+
+    @Param({BenchmarkMatrices.AWS, BenchmarkMatrices.SYNTHETIC})
+    public String source;
+
+    private Simulator simulator;
+    private long[][] m;
+    private int[] replicaSet;
+    private WeightConfiguration w;
+    private int f;
+    private int delta;
+
+    @Setup
+    public void setup() throws Exception {
+        f = (n - 1) / 3;
+        delta = n - (3 * f + 1);
+        m = BenchmarkMatrices.create(source, n);
+        replicaSet = BenchmarkMatrices.replicaSet(n);
+        w = new WeightConfiguration(2 * f, replicaSet);
+        simulator = new Simulator(null);
+    }
+
+    @Benchmark
+    public Long predictLatency() {
+        return simulator.predictLatency(replicaSet, 0, w, m, m, n, f, delta, 10);
+    }
+
+    @Benchmark
+    public long predictLatencyUnboxed() {
+        return simulator.predictLatencyUnboxed(replicaSet, 0, w, m, m, n, f, delta, 10);
+    }
+}
@@ -0,0 +1,72 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.AwareConfiguration;
+import bftsmart.aware.decisions.BranchAndBound;
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.WeightConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the exact searches, which traverse the whole search space, for system sizes they are used for
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"4", "7", "10", "13"})
+    public int n;
+
+    @Param({BenchmarkMatrices.AWS, BenchmarkMatrices.SYNTHETIC})
+    public String source;
+
+    private Simulator simulator;
+    private long[][] m;
+    private int[] replicaSet;
+    private int f;
+    private int delta;
+    private int u;
+
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Exception {
+        f = (n - 1) / 3;
+        delta = n - (3 * f + 1);
+        u = 2 * f;
+        m = BenchmarkMatrices.create(source, n);
+        replicaSet = BenchmarkMatrices.replicaSet(n);
+        simulator = new Simulator(null);
+        out = BenchmarkMatrices.silence();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public List<WeightConfiguration> allPossibleWeightConfigurations() {
+        return WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet);
+    }
+
+    @Benchmark
+    public Simulator.SimulationRun exhaustiveSearch() {
+        return Simulator.exhaustiveSearch(n, f, delta, u, replicaSet, m, m);
+    }
+
+    @Benchmark
+    public AwareConfiguration branchAndBound() {
+        return new BranchAndBound(simulator, null, null, null, null, replicaSet, m, m, n, f, delta, u, 10, true, true,
+                0).search();
+    }
+}
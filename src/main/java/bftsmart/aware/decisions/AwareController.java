@@ -1,15 +1,29 @@
 package bftsmart.aware.decisions;
 
+import bftsmart.aware.monitoring.Measurements;
 import bftsmart.aware.monitoring.Monitor;
+import bftsmart.consensus.Decision;
 import bftsmart.consensus.roles.Acceptor;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.reconfiguration.views.View;
 import bftsmart.tom.core.ExecutionManager;
+import bftsmart.tom.core.messages.TOMMessage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Implements adaptive wide-area replication
@@ -23,6 +37,7 @@ public class AwareController {
     // constants: emperically determined
     public static final int ROUNDS_AMORTIZATION = 10;
     public static final int N_SIZE_TO_USE_HEURISTICS = 10;
+    public static final int N_SIZE_TO_USE_HEURISTICS_BRANCH_AND_BOUND = 13;
 
     private static AwareController instance;
 
@@ -40,6 +55,34 @@ public class AwareController {
 
     private Simulator simulator;
 
+    // Fork-join pool for the parallel search, null if the search space is traversed sequentially
+    private ForkJoinPool searchPool;
+
+    // Memoized predictions, null if predictions are not cached
+    private PredictionCache predictionCache;
+
+    // Decides if a better configuration is worth the reconfiguration, keeps hysteresis state across intervals
+    private ReconfigurationPolicy reconfigurationPolicy;
+
+    // Detects replicas that slowed down between two calculation intervals, null if disabled
+    private StragglerDetector stragglerDetector;
+    private long checkedMeasurements = 0;
+
+    // Compares the observed consensus latency with the prediction for the active configuration
+    private PredictionAccuracy accuracy;
+
+    // Background search that started k consensus instances before it is applied
+    private ExecutorService precomputationExecutor;
+    private Future<Result> precomputation;
+    private int precomputationCid = -1;
+
+    // Background search for a configuration without a straggler, applied at demotionCid
+    private Future<Result> demotion;
+    private int demotionCid = -1;
+
+    // Replicated state after the last consensus instances, sent to replicas that recover the state of one of them
+    private final TreeMap<Integer, State> states = new TreeMap<>();
+
     public ServerViewController svc;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -67,6 +110,30 @@ public class AwareController {
         this.executionManager = executionManager;
         this.simulator = new Simulator(viewControl);
 
+        int searchThreads = viewControl.getStaticConf().getSearchThreads();
+        if (searchThreads != 1) {
+            this.searchPool = searchThreads > 1 ? new ForkJoinPool(searchThreads) : new ForkJoinPool();
+        }
+
+        int predictionCacheSize = viewControl.getStaticConf().getPredictionCacheSize();
+        if (predictionCacheSize > 0) {
+            this.predictionCache = new PredictionCache(predictionCacheSize,
+                    viewControl.getStaticConf().getPredictionCacheQuantum() * 1000L);
+        }
+
+        this.reconfigurationPolicy = new ReconfigurationPolicy(viewControl.getStaticConf().getWeightChangeCost(),
+                viewControl.getStaticConf().getLeaderChangeCost(),
+                viewControl.getStaticConf().getAmortizationHorizon() > 0 ?
+                        viewControl.getStaticConf().getAmortizationHorizon() :
+                        viewControl.getStaticConf().getCalculationInterval(),
+                viewControl.getStaticConf().getHysteresisIntervals());
+
+        this.accuracy = new PredictionAccuracy(viewControl.getStaticConf().getMonitoringHorizon() * 1000000000L);
+
+        if (viewControl.getStaticConf().getStragglerThreshold() > 0) {
+            this.stragglerDetector = new StragglerDetector(viewControl.getStaticConf().getStragglerThreshold());
+        }
+
         // Debug
         // Periodically outputs current configuration
         Timer timer = new Timer();
@@ -90,20 +157,43 @@ public class AwareController {
      * the search space is factorial in N and needs to be handled with some heuristics in larger systems
      */
     public AwareConfiguration computeBest() {
-        Simulator simulator = new Simulator(viewControl);
-        int[] replicaSet = viewControl.getCurrentViewProcesses();
-        Monitor monitor = Monitor.getInstance(viewControl);
+        Result result = computeBest(takeSnapshot(executionManager.getTOMLayer().getLastExec()));
+        this.currentDW = result.current;
+        this.best = result.best;
+        return result.best;
+    }
 
+    /**
+     * Captures everything the search depends on: the latency matrices that have been disseminated with total order,
+     * the current weights and the current leader. Taken while a decision is delivered, the snapshot is the same in
+     * all correct replicas.
+     *
+     * @param cid consensus id the snapshot is taken at, used as seed for heuristics
+     * @return snapshot
+     */
+    private Snapshot takeSnapshot(int cid) {
+        return takeSnapshot(cid, false);
+    }
+
+    /**
+     * Captures everything the search depends on, see takeSnapshot(int)
+     *
+     * @param cid    consensus id the snapshot is taken at, used as seed for heuristics
+     * @param latest use the latencies last delivered from every replica instead of the ones delivered in the current
+     *               calculation interval; latency distributions are not used then
+     * @return snapshot
+     */
+    private Snapshot takeSnapshot(int cid, boolean latest) {
+        Monitor monitor = Monitor.getInstance(viewControl);
         int n = viewControl.getCurrentViewN();
-        int f = viewControl.getCurrentViewF();
-        int u = viewControl.getStaticConf().isBFT() ? 2 * f : f;
-        int delta = viewControl.getStaticConf().getDelta();
 
         // init matrices
         long[][] propose = new long[n][n];
         long[][] write = new long[n][n];
-        Long[][] propose_ast = monitor.sanitize(monitor.getM_propose());
-        Long[][] write_ast = monitor.sanitize(monitor.getM_write());
+        Long[][] propose_ast = monitor.sanitize(latest ? monitor.getLatestM_propose() :
+                monitor.fillFromArchive(monitor.getM_propose(), false));
+        Long[][] write_ast = monitor.sanitize(latest ? monitor.getLatestM_write() :
+                monitor.fillFromArchive(monitor.getM_write(), true));
 
         // Long to long
         for (int i = 0; i < n; i++) {
@@ -116,16 +206,156 @@ public class AwareController {
             propose = write;
         }
 
-        int cid = executionManager.getTOMLayer().getLastExec();
+        // Latency distributions, only needed if tail latencies are predicted
+        long[][][] proposeQuantiles = null;
+        long[][][] writeQuantiles = null;
+        if (viewControl.getStaticConf().getTailPercentile() > 0 && !latest) {
+            writeQuantiles = monitor.sanitizeQuantiles(monitor.getM_write_q());
+            proposeQuantiles = instance.svc.getStaticConf().isUseDummyPropose() ?
+                    monitor.sanitizeQuantiles(monitor.getM_propose_q()) : writeQuantiles;
+        }
+
+        // Processing delays of the replicas, only if they are measured
+        ProcessingDelayModel processing = null;
+        if (viewControl.getStaticConf().isUseProcessingDelays()) {
+            Long[][] delays = latest ? monitor.getLatestM_processing() : monitor.getM_processing();
+            long[] proposeDelays = new long[n];
+            long[] acceptDelays = new long[n];
+            for (int i = 0; i < n; i++) {
+                proposeDelays[i] = delays[i][0];
+                acceptDelays[i] = delays[i][1];
+            }
+            processing = new ProcessingDelayModel(proposeDelays, acceptDelays, viewControl.getStaticConf().isBFT());
+        }
+
+        return new Snapshot(cid, propose, write, proposeQuantiles, writeQuantiles, current,
+                executionManager.getCurrentLeader(), createThroughputModel(), processing);
+    }
+
+    /**
+     * Creates the throughput model of the configured optimization objective from the disseminated bandwidths and the
+     * sizes of the batches decided since the last optimization
+     *
+     * @return throughput model or null if the objective is latency
+     */
+    private ThroughputModel createThroughputModel() {
+        ThroughputModel.Objective objective;
+        switch (viewControl.getStaticConf().getOptimizationObjective()) {
+            case "throughput":
+                objective = ThroughputModel.Objective.THROUGHPUT;
+                break;
+            case "mixed":
+                objective = ThroughputModel.Objective.MIXED;
+                break;
+            default:
+                return null;
+        }
+
+        Monitor monitor = Monitor.getInstance(viewControl);
+        int n = viewControl.getCurrentViewN();
+
+        long[][] bandwidth = new long[n][n];
+        Long[][] bandwidth_ast = monitor.sanitizeBandwidth(monitor.getM_bandwidth());
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                bandwidth[i][j] = bandwidth_ast[i][j];
+            }
+        }
+
+        return new ThroughputModel(objective, viewControl.getStaticConf().getThroughputWeight(), bandwidth,
+                monitor.getAverageProposalSize(), monitor.getAverageBatchSize(), viewControl.getCurrentViewProcesses(), n);
+    }
+
+    /**
+     * Searches the best configuration for the given snapshot. Only depends on the snapshot, hence it may run on
+     * another thread than the one delivering decisions.
+     *
+     * @param snapshot latency matrices and current configuration
+     * @return best configuration and the current one with its predicted latency
+     */
+    private Result computeBest(Snapshot snapshot) {
+        int[] replicaSet = viewControl.getCurrentViewProcesses();
+
+        int n = viewControl.getCurrentViewN();
+        int f = viewControl.getCurrentViewF();
+        int u = viewControl.getStaticConf().isBFT() ? 2 * f : f;
+        int delta = viewControl.getStaticConf().getDelta();
+
+        long[][] propose = snapshot.propose;
+        long[][] write = snapshot.write;
+
+        // The leader needs time to transmit the proposal, add it to the PROPOSE latencies
+        ThroughputModel model = snapshot.model;
+        if (model != null) {
+            propose = model.adjustPropose(propose);
+        }
 
-        currentDW = new AwareConfiguration(current, executionManager.getCurrentLeader());
-        Long estimate_current = simulator.predictLatency(replicaSet, currentDW.getLeader(),
-                currentDW.getWeightConfiguration(), propose, write, n, f, delta, ROUNDS_AMORTIZATION);
+        // Replicas need time to process PROPOSE and WRITE messages
+        if (snapshot.processing != null) {
+            propose = snapshot.processing.adjustPropose(propose);
+            write = snapshot.processing.adjustWrite(write);
+        }
+
+        // Tail latencies are predicted on latency matrices drawn from the distributions, seeded with the consensus id
+        TailLatencyModel tail = null;
+        if (snapshot.proposeQuantiles != null) {
+            tail = new TailLatencyModel(viewControl.getStaticConf().getTailPercentile(),
+                    viewControl.getStaticConf().getMonteCarloSamples(), snapshot.cid, Monitor.QUANTILE_LEVELS,
+                    snapshot.proposeQuantiles, snapshot.writeQuantiles, n);
+            if (model != null) {
+                tail.adjustPropose(model);
+            }
+            if (snapshot.processing != null) {
+                tail.adjustProcessing(snapshot.processing);
+            }
+        }
+
+        // Predictions are based on quantized matrices if they are cached, so that they do not depend on the cache state
+        PredictionCache.Fingerprint fingerprint = null;
+        if (predictionCache != null) {
+            propose = predictionCache.quantize(propose);
+            write = predictionCache.quantize(write);
+            fingerprint = predictionCache.fingerprint(propose, write);
+        }
+
+        int cid = snapshot.cid;
+
+        AwareConfiguration currentDW = new AwareConfiguration(snapshot.weights, snapshot.leader);
+        long estimate_current = simulator.predictCost(model, tail, predictionCache, fingerprint, replicaSet,
+                currentDW.getLeader(), currentDW.getWeightConfiguration(), propose, write, n, f, delta,
+                ROUNDS_AMORTIZATION);
         currentDW.setPredictedLatency(estimate_current);
 
-        // For larger systems, use heuristic, e.g, Simulated Annealing
-        if (n > N_SIZE_TO_USE_HEURISTICS) {
-            return Simulator.simulatedAnnealing(n, f, delta, u, replicaSet, propose, write, cid).best;
+        boolean useBranchAndBound = viewControl.getStaticConf().isUseBranchAndBound();
+
+        // For larger systems, use heuristic, e.g, Simulated Annealing (which only sees the transmission times and
+        // predicts median latencies)
+        if (n > (useBranchAndBound ? N_SIZE_TO_USE_HEURISTICS_BRANCH_AND_BOUND : N_SIZE_TO_USE_HEURISTICS)) {
+            // Chains run on the search pool, seeded with the consensus id so that all replicas find the same result
+            int chains = viewControl.getStaticConf().getHeuristicChains();
+            int evaluations = viewControl.getStaticConf().getHeuristicEvaluations();
+            ExecutorService pool = searchPool != null ? searchPool : chains > 1 ? ForkJoinPool.commonPool() : null;
+            Simulator.SimulationRun run = viewControl.getStaticConf().getHeuristic().equals("tabu") ?
+                    Simulator.multiStartTabuSearch(n, f, delta, u, replicaSet, propose, write, cid, chains,
+                            evaluations, 0, pool) :
+                    Simulator.multiStartSimulatedAnnealing(n, f, delta, u, replicaSet, propose, write, cid, chains,
+                            evaluations, 0, pool);
+            return new Result(run.best, currentDW);
+        }
+
+        // Exact search that only simulates configurations which may beat the best one found so far
+        if (useBranchAndBound) {
+            BranchAndBound branchAndBound = new BranchAndBound(simulator, model, tail, predictionCache, fingerprint,
+                    replicaSet, propose, write, n, f, delta, u, ROUNDS_AMORTIZATION,
+                    viewControl.getStaticConf().isBFT(), viewControl.getStaticConf().isUseLeaderSelection(),
+                    snapshot.leader);
+            AwareConfiguration best = branchAndBound.search();
+
+            logger.info("the best config is " + best + " (simulated " + branchAndBound.getExamined()
+                    + " configurations, pruned " + branchAndBound.getPruned() + " subtrees)");
+            logger.info("current config is estimated to be " + estimate_current);
+
+            return new Result(best, currentDW);
         }
 
 
@@ -134,7 +364,7 @@ public class AwareController {
         List<WeightConfiguration> weightConfigs = WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet);
 
         List<AwareConfiguration> awareConfigurations = new ArrayList<>();
-        int leader = executionManager.getCurrentLeader();
+        int leader = snapshot.leader;
 
         // Generate the search space
         //      determine if leader should be selected or not
@@ -151,12 +381,20 @@ public class AwareController {
         }
 
         // Compute the predictet latencies of all possible configurations using the simulator
-        for (AwareConfiguration dwc : awareConfigurations) {
-            Long predictedLatency = simulator.predictLatency(replicaSet, dwc.getLeader(), dwc.getWeightConfiguration(),
-                    propose, write, n, f, delta, ROUNDS_AMORTIZATION);
-            dwc.setPredictedLatency(predictedLatency);
-            //logger.info("WeightConfig " + dwc.getWeightConfiguration() + "with leader " + dwc.getLeader() +
-            //        " has predicted latency of " + ((double) Math.round(predictedLatency) / 1000) / 1000.00 + " ms");
+        if (searchPool != null) {
+            // Split the search space across the fork-join pool; the order of the list is preserved, hence the
+            // selection below is the same as in the sequential search
+            searchPool.invoke(new PredictionTask(simulator, model, tail, predictionCache, fingerprint,
+                    awareConfigurations, replicaSet, propose, write, n, f, delta, ROUNDS_AMORTIZATION));
+        } else {
+            for (AwareConfiguration dwc : awareConfigurations) {
+                long predictedLatency = simulator.predictCost(model, tail, predictionCache, fingerprint, replicaSet,
+                        dwc.getLeader(), dwc.getWeightConfiguration(), propose, write, n, f, delta,
+                        ROUNDS_AMORTIZATION);
+                dwc.setPredictedLatency(predictedLatency);
+                //logger.info("WeightConfig " + dwc.getWeightConfiguration() + "with leader " + dwc.getLeader() +
+                //        " has predicted latency of " + ((double) Math.round(predictedLatency) / 1000) / 1000.00 + " ms");
+            }
         }
 
         // Sort configurations for ascending predicted latency
@@ -172,6 +410,19 @@ public class AwareController {
         logger.info("the worst config is " + worst);
         logger.info("");
         logger.info("current config is estimated to be " + estimate_current);
+        if (tail != null) {
+            logger.info("predicted latencies are " + tail.getPercentile() + "th percentiles of "
+                    + tail.getSamples() + " Monte-Carlo samples");
+        }
+        if (model != null && model.getObjective() == ThroughputModel.Objective.THROUGHPUT) {
+            // The cost of the throughput objective is the time per batch
+            logger.info("best config is predicted to achieve " + Math.round(model.throughput(best.getPredictedLatency()))
+                    + " requests/s for proposals of " + model.getProposalSize() + " bytes");
+        }
+        if (predictionCache != null) {
+            logger.info("prediction cache holds " + predictionCache.size() + " predictions, "
+                    + predictionCache.getHits() + " hits and " + predictionCache.getMisses() + " misses so far");
+        }
 
         List<AwareConfiguration> bestConfigs = new ArrayList<>();
         for (AwareConfiguration dwc: awareConfigurations) {
@@ -180,7 +431,7 @@ public class AwareController {
             }
         }
 
-        int currentLeader = this.executionManager.getCurrentLeader();
+        int currentLeader = snapshot.leader;
 
         best = bestConfigs.get(0);
         for (AwareConfiguration dwc: bestConfigs) {
@@ -190,8 +441,7 @@ public class AwareController {
             }
         }
 
-        this.best = best;
-        return best;
+        return new Result(best, currentDW);
     }
 
 
@@ -201,75 +451,616 @@ public class AwareController {
      * @param cid consensus id
      */
     public void optimize(int cid) {
+        if (!svc.getStaticConf().isUseDynamicWeights()) {
+            return;
+        }
+        int interval = svc.getStaticConf().getCalculationInterval();
+        int lead = svc.getStaticConf().getPrecomputationLead();
+
+        // Start the search k consensus instances ahead, on the matrices all replicas have at this point
+        if (lead > 0 && (cid + lead) % interval == 0) {
+            precompute(cid + lead);
+        }
+
         // Re-calculate best weight distribution after every x consensus
-        if (svc.getStaticConf().isUseDynamicWeights() && cid % svc.getStaticConf().getCalculationInterval() == 0 & cid > 0) {
-
-            AwareController awareController = AwareController.getInstance(svc, executionManager);
-            AwareConfiguration best = awareController.computeBest();
-            AwareConfiguration current = awareController.getCurrentDW();
-
-            // What is the best weight config and what is the current one?
-            WeightConfiguration bestWeights = best.getWeightConfiguration();
-            WeightConfiguration currentWeights = current.getWeightConfiguration();
-
-            logger.info("");
-            logger.info("!!! Best: " + best);
-            logger.info("");
-
-            if (svc.getStaticConf().isUseDynamicWeights()
-                    && !currentWeights.equals(bestWeights)
-                    && current.getPredictedLatency() > best.getPredictedLatency() * svc.getStaticConf().getOptimizationGoal()) {
-
-                // The current weight configuration is not the best
-                // Deterministically change weights (this decision will be the same in all correct replicas)
-                // svc.getCurrentView().setWeights(bestWeights);
-                View currentView = svc.getCurrentView();
-                //     public View(int id, int[] processes, int f, InetSocketAddress[] addresses, boolean isBFT, int delta,
-                View newView = new View(currentView.getId() + 1, currentView.getProcesses(), currentView.getF(),
-                        currentView.getAddresses(), currentView.isBFT(), currentView.getDelta(), bestWeights);
-                svc.reconfigureTo(newView);
-                AwareController.getInstance(svc, executionManager).setCurrent(bestWeights);
-                logger.info("|AWARE|-" + cid + "-[X] Optimization: Weight adjustment, now using " + bestWeights);
+        boolean calculationInterval = cid % interval == 0 & cid > 0;
+
+        // In between, re-calculate it in the background as soon as a replica in R_max or the leader slowed down, and
+        // apply the result a fixed number of consensus instances later. A calculation interval supersedes it
+        boolean demotionDue = demotion != null && demotionCid == cid;
+        if (calculationInterval || demotionCid < cid) {
+            demotion = null;
+            demotionCid = -1;
+        }
+        if (!calculationInterval && demotion == null) {
+            int straggler = detectStraggler();
+            if (straggler != -1) {
+                logger.info("|AWARE|-" + cid + " replica " + straggler + " slowed down by a factor of "
+                        + stragglerDetector.slowdown(latestWrite(), latestSeqs(), straggler) + ", re-calculating");
+                startDemotion(cid, cid + Math.max(lead, 1));
+            }
+        }
+
+        if (calculationInterval || demotionDue) {
+
+            Result result;
+            if (calculationInterval) {
+                result = lead > 0 ? awaitPrecomputation(cid) : computeBest(takeSnapshot(cid));
             } else {
-                // Keep the current configuration
-                logger.info("|AWARE|-"+ cid + "-[ ] Optimization: Weight adjustment, no adjustment," +
-                        " current weight config is the best weight config");
+                result = awaitDemotion(cid);
+            }
+            if (result != null) {
+                this.currentDW = result.current;
+                this.best = result.best;
+                reconfigure(cid, result.current, result.best, calculationInterval);
+            }
+
+            if (stragglerDetector != null) {
+                stragglerDetector.rebase(latestWrite(), latestSeqs());
+            }
+
+            // Track the accuracy of the prediction for the configuration that is active now
+            logger.info("|AWARE|-" + cid + " prediction accuracy: " + accuracy);
+            int activeLeader = executionManager.getCurrentLeader();
+            accuracy.activate(getCurrent(), activeLeader, predictMedianLatency(
+                    takeSnapshot(cid, !calculationInterval), getCurrent(), activeLeader));
+            if (calculationInterval) {
+                Monitor.getInstance(viewControl).archive(cid);
+                Monitor.getInstance(viewControl).init(svc.getCurrentViewN());
             }
+        }
+        record(cid);
+    }
 
-            if (svc.getStaticConf().isUseLeaderSelection()
-                    && executionManager.getCurrentLeader() != best.getLeader()
-                    && current.getPredictedLatency() > best.getPredictedLatency() * svc.getStaticConf().getOptimizationGoal()) {
+    /**
+     * Switches to the best configuration if it is worth it
+     *
+     * @param cid                 consensus id
+     * @param current             current configuration with its predicted latency
+     * @param best                best configuration with its predicted latency
+     * @param calculationInterval false if the search was triggered by a straggler
+     */
+    private void reconfigure(int cid, AwareConfiguration current, AwareConfiguration best,
+                             boolean calculationInterval) {
+        // What is the best weight config and what is the current one?
+        WeightConfiguration bestWeights = best.getWeightConfiguration();
+        WeightConfiguration currentWeights = current.getWeightConfiguration();
 
-                // The current leader is not the best, change it to the best
-                int newLeader =  (best.getLeader()+svc.getCurrentViewN()) % svc.getCurrentViewN();
-                executionManager.setNewLeader(newLeader);
+        logger.info("");
+        logger.info("!!! Best: " + best);
+        logger.info("");
+
+        // Only switch if the gain amortizes the cost of the reconfiguration and best won often enough in a row.
+        // A straggler is demoted without hysteresis.
+        boolean weightsChange = !currentWeights.equals(bestWeights);
+        boolean leaderChanges = svc.getStaticConf().isUseLeaderSelection()
+                && executionManager.getCurrentLeader() != best.getLeader();
+        boolean worthIt = calculationInterval
+                ? reconfigurationPolicy.accept(current, best, weightsChange, leaderChanges)
+                : reconfigurationPolicy.demote(current, best, weightsChange, leaderChanges);
+        if (!worthIt && (weightsChange || leaderChanges)) {
+            logger.info(calculationInterval ? "|AWARE|-" + cid + " reconfiguration postponed, best config won "
+                    + reconfigurationPolicy.getConfirmations() + " interval(s) in a row"
+                    : "|AWARE|-" + cid + " straggler kept, the gain does not amortize the reconfiguration");
+        }
 
-                logger.info("-----_> NEW LEADER SET TO " + newLeader);
-                if (svc.getStaticConf().getProcessId() == newLeader) {
-                    executionManager.getTOMLayer().imAmTheLeader();
-                    logger.info("-----_> I AM THE LEADER NOW" + newLeader);
-                } else {
-                    Acceptor acceptor = executionManager.getAcceptor();
+        if (weightsChange && worthIt
+                && current.getPredictedLatency() > best.getPredictedLatency() * svc.getStaticConf().getOptimizationGoal()) {
+
+            // The current weight configuration is not the best
+            // Deterministically change weights (this decision will be the same in all correct replicas)
+            // svc.getCurrentView().setWeights(bestWeights);
+            View currentView = svc.getCurrentView();
+            //     public View(int id, int[] processes, int f, InetSocketAddress[] addresses, boolean isBFT, int delta,
+            View newView = new View(currentView.getId() + 1, currentView.getProcesses(), currentView.getF(),
+                    currentView.getAddresses(), currentView.isBFT(), currentView.getDelta(), bestWeights);
+            svc.reconfigureTo(newView);
+            AwareController.getInstance(svc, executionManager).setCurrent(bestWeights);
+            logger.info("|AWARE|-" + cid + "-[X] Optimization: Weight adjustment, now using " + bestWeights);
+        } else {
+            // Keep the current configuration
+            logger.info("|AWARE|-"+ cid + "-[ ] Optimization: Weight adjustment, no adjustment," +
+                    " current weight config is the best weight config");
+        }
 
-                   // int cidNew = cid+1;
-                    //logger.info("" + acceptor.proposeRecvd[newLeader]  + " " + cidNew );
-                    //if(acceptor.proposeRecvd[newLeader] != null)
-                       // logger.info("!!!! NUMBER" + acceptor.proposeRecvd[newLeader].getNumber());
+        if (leaderChanges && worthIt
+                && current.getPredictedLatency() > best.getPredictedLatency() * svc.getStaticConf().getOptimizationGoal()) {
+
+            // The current leader is not the best, change it to the best
+            int newLeader =  (best.getLeader()+svc.getCurrentViewN()) % svc.getCurrentViewN();
+            executionManager.setNewLeader(newLeader);
+
+            logger.info("-----_> NEW LEADER SET TO " + newLeader);
+            if (svc.getStaticConf().getProcessId() == newLeader) {
+                executionManager.getTOMLayer().imAmTheLeader();
+                logger.info("-----_> I AM THE LEADER NOW" + newLeader);
+            } else {
+                Acceptor acceptor = executionManager.getAcceptor();
+
+               // int cidNew = cid+1;
+                //logger.info("" + acceptor.proposeRecvd[newLeader]  + " " + cidNew );
+                //if(acceptor.proposeRecvd[newLeader] != null)
+                   // logger.info("!!!! NUMBER" + acceptor.proposeRecvd[newLeader].getNumber());
+
+
+                if(acceptor.proposeRecvd[newLeader] != null && acceptor.proposeRecvd[newLeader].getNumber() == cid + 1) {
+                    //logger.info("!!!!!!!!" + acceptor.proposeRecvd[newLeader] + " " + acceptor.proposeRecvd[newLeader].getNumber() + " " + cidNew );
+                    //logger.info("!!!!!!!! Receiving propose of new leader");
+                    acceptor.processMessage(acceptor.proposeRecvd[newLeader]);
+                }
+            }
 
+            logger.info("|AWARE|  [X] Optimization: leader selection, new leader is? " + best.getLeader());
+        } else { // Keep the current configuration
+            logger.info("|AWARE|  [ ] Optimization: leader selection: no leader change," +
+                    " current leader is the best leader");
+        }
+    }
+
+    /**
+     * Records the replicated state after a consensus instance, as long as the log may be asked for the application
+     * state of this instance
+     *
+     * @param cid consensus id
+     */
+    private void record(int cid) {
+        State state = new State(Monitor.getInstance(viewControl).getState(), current,
+                reconfigurationPolicy.getCandidate(), reconfigurationPolicy.getConfirmations(),
+                stragglerDetector != null ? stragglerDetector.getBaseline() : null,
+                stragglerDetector != null ? stragglerDetector.getBaselineSeqs() : null, checkedMeasurements,
+                precomputationCid, precomputation, demotionCid, demotion);
+        synchronized (states) {
+            states.put(cid, state);
+            while (states.size() > Math.max(viewControl.getStaticConf().getCheckpointPeriod(), 1)) {
+                states.pollFirstEntry();
+            }
+        }
+    }
+
+    /**
+     * Gets the replicated state after a consensus instance, to be sent to a replica that recovers the application
+     * state of this instance. Waits for the searches that are still running in the background.
+     *
+     * @param cid consensus id
+     * @return serialized state, the same in all correct replicas, or null if it is not recorded anymore
+     */
+    public byte[] getState(int cid) {
+        State state;
+        synchronized (states) {
+            state = states.get(cid);
+        }
+        if (state == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(cid);
+            state.monitor.write(out);
+            writeWeights(out, state.weights);
+            out.writeInt(state.candidate != null ? state.confirmations : 0);
+            if (state.candidate != null) {
+                writeConfiguration(out, state.candidate);
+            }
+            out.writeBoolean(state.baseline != null);
+            if (state.baseline != null) {
+                writeBaseline(out, state.baseline, state.baselineSeqs);
+            }
+            out.writeLong(state.checkedMeasurements);
+            writeSearch(out, state.precomputationCid, state.precomputation);
+            writeSearch(out, state.demotionCid, state.demotion);
+            out.close();
+            return baos.toByteArray();
+        } catch (IOException | InterruptedException e) {
+            logger.error("Could not serialize the state of consensus " + cid, e);
+            return null;
+        }
+    }
 
-                    if(acceptor.proposeRecvd[newLeader] != null && acceptor.proposeRecvd[newLeader].getNumber() == cid + 1) {
-                        //logger.info("!!!!!!!!" + acceptor.proposeRecvd[newLeader] + " " + acceptor.proposeRecvd[newLeader].getNumber() + " " + cidNew );
-                        //logger.info("!!!!!!!! Receiving propose of new leader");
-                        acceptor.processMessage(acceptor.proposeRecvd[newLeader]);
+    /**
+     * Installs the replicated state after the consensus instance this replica recovered. Without a state agreed on by
+     * the other replicas, the latencies of the last calculation interval are reloaded from the history, so that the
+     * next optimization does not start from empty matrices.
+     *
+     * @param cid   consensus id of the recovered state
+     * @param bytes serialized state, see getState(int), or null
+     */
+    public void setState(int cid, byte[] bytes) {
+        if (!viewControl.getStaticConf().isUseDynamicWeights()) {
+            return;
+        }
+        State state = null;
+        if (bytes != null) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (in.readInt() == cid) {
+                    Monitor.State monitor = Monitor.State.read(in);
+                    WeightConfiguration weights = readWeights(in);
+                    int confirmations = in.readInt();
+                    AwareConfiguration candidate = confirmations > 0 ? readConfiguration(in) : null;
+                    long[][] baseline = null;
+                    int[] baselineSeqs = null;
+                    if (in.readBoolean()) {
+                        baseline = new long[readLength(in)][];
+                        baselineSeqs = new int[baseline.length];
+                        readBaseline(in, baseline, baselineSeqs);
                     }
+                    long checkedMeasurements = in.readLong();
+                    int precomputationCid = in.readInt();
+                    Future<Result> precomputation = readSearch(in, precomputationCid);
+                    int demotionCid = in.readInt();
+                    Future<Result> demotion = readSearch(in, demotionCid);
+                    state = new State(monitor, weights, candidate, confirmations, baseline, baselineSeqs,
+                            checkedMeasurements, precomputationCid, precomputation, demotionCid, demotion);
                 }
+            } catch (IOException e) {
+                logger.error("Could not deserialize the state of consensus " + cid, e);
+            }
+        }
+        if (state == null) {
+            logger.warn("No state of consensus " + cid + " agreed on by the other replicas");
+            Monitor.getInstance(viewControl).warmStart(cid, viewControl.getStaticConf().getCalculationInterval());
+            return;
+        }
+
+        Monitor.getInstance(viewControl).setState(state.monitor);
+        this.current = state.weights;
+        reconfigurationPolicy.setHysteresis(state.candidate, state.confirmations);
+        if (stragglerDetector != null) {
+            stragglerDetector.setBaseline(state.baseline, state.baselineSeqs);
+        }
+        this.checkedMeasurements = state.checkedMeasurements;
+        this.precomputationCid = state.precomputationCid;
+        this.precomputation = state.precomputation;
+        this.demotionCid = state.demotionCid;
+        this.demotion = state.demotion;
+        synchronized (states) {
+            states.clear();
+            states.put(cid, state);
+        }
+        logger.info("Installed the state of consensus " + cid);
+    }
+
+    private static void writeWeights(DataOutputStream out, WeightConfiguration weights) throws IOException {
+        // Sorted, so that all replicas write the same bytes
+        for (Set<Integer> replicas : Arrays.asList(weights.getR_max(), weights.getR_min())) {
+            out.writeInt(replicas.size());
+            for (int r : new TreeSet<>(replicas))
+                out.writeInt(r);
+        }
+    }
 
-                logger.info("|AWARE|  [X] Optimization: leader selection, new leader is? " + best.getLeader());
-            } else { // Keep the current configuration
-                logger.info("|AWARE|  [ ] Optimization: leader selection: no leader change," +
-                        " current leader is the best leader");
+    /**
+     * Writes the result of a search, waiting for it if it is still running
+     *
+     * @param out       output
+     * @param searchCid consensus id at which the result will be applied
+     * @param search    search, or null if there is none
+     */
+    private void writeSearch(DataOutputStream out, int searchCid, Future<Result> search)
+            throws IOException, InterruptedException {
+        Result result = null;
+        if (search != null) {
+            try {
+                result = search.get();
+            } catch (ExecutionException e) {
+                logger.error("Search for the best configuration failed", e);
             }
-            Monitor.getInstance(viewControl).init(svc.getCurrentViewN());
+        }
+        out.writeInt(result != null ? searchCid : -1);
+        if (result != null) {
+            writeConfiguration(out, result.best);
+            writeConfiguration(out, result.current);
+        }
+    }
+
+    private static Future<Result> readSearch(DataInputStream in, int searchCid) throws IOException {
+        return searchCid != -1 ? CompletableFuture.completedFuture(
+                new Result(readConfiguration(in), readConfiguration(in))) : null;
+    }
+
+    private static void writeBaseline(DataOutputStream out, long[][] baseline, int[] seqs) throws IOException {
+        out.writeInt(baseline.length);
+        for (int i = 0; i < baseline.length; i++) {
+            out.writeInt(seqs[i]);
+            out.writeInt(baseline[i].length);
+            for (long latency : baseline[i])
+                out.writeLong(latency);
+        }
+    }
+
+    private static void readBaseline(DataInputStream in, long[][] baseline, int[] seqs) throws IOException {
+        for (int i = 0; i < baseline.length; i++) {
+            seqs[i] = in.readInt();
+            baseline[i] = new long[readLength(in)];
+            for (int j = 0; j < baseline[i].length; j++)
+                baseline[i][j] = in.readLong();
+        }
+    }
+
+    // Length of an array that is about to be read, at most the remaining bytes so that malformed input fails early
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    private static WeightConfiguration readWeights(DataInputStream in) throws IOException {
+        List<Set<Integer>> sets = new ArrayList<>();
+        for (int k = 0; k < 2; k++) {
+            int size = in.readInt();
+            if (size < 0 || size > in.available()) {
+                throw new IOException("Invalid number of replicas " + size);
+            }
+            Set<Integer> replicas = new TreeSet<>();
+            for (int i = 0; i < size; i++)
+                replicas.add(in.readInt());
+            sets.add(replicas);
+        }
+        return new WeightConfiguration(sets.get(0), sets.get(1));
+    }
+
+    private static void writeConfiguration(DataOutputStream out, AwareConfiguration configuration)
+            throws IOException {
+        writeWeights(out, configuration.getWeightConfiguration());
+        out.writeInt(configuration.getLeader());
+        out.writeLong(configuration.getPredictedLatency());
+    }
+
+    private static AwareConfiguration readConfiguration(DataInputStream in) throws IOException {
+        return new AwareConfiguration(readWeights(in), in.readInt(), in.readLong());
+    }
+
+    /**
+     * Records the consensus latency of a decision, if this replica proposed it
+     *
+     * @param decision decided consensus
+     */
+    public void observe(Decision decision) {
+        TOMMessage first = decision.firstMessageProposed;
+        if (first != null && decision.getLeader() == viewControl.getStaticConf().getProcessId()
+                && first.consensusStartTime > 0 && first.decisionTime > first.consensusStartTime) {
+            accuracy.observe(first.decisionTime - first.consensusStartTime);
+        }
+    }
+
+    /**
+     * Predicts the median consensus latency of a configuration, including the transmission times of the throughput
+     * model and the processing delays, to be compared with observed latencies
+     */
+    private long predictMedianLatency(Snapshot snapshot, WeightConfiguration weights, int leader) {
+        int n = viewControl.getCurrentViewN();
+        int f = viewControl.getCurrentViewF();
+        int delta = viewControl.getStaticConf().getDelta();
+        long[][] propose = snapshot.model != null ? snapshot.model.adjustPropose(snapshot.propose) : snapshot.propose;
+        long[][] write = snapshot.write;
+        if (snapshot.processing != null) {
+            propose = snapshot.processing.adjustPropose(propose);
+            write = snapshot.processing.adjustWrite(write);
+        }
+        return simulator.predictLatencyUnboxed(viewControl.getCurrentViewProcesses(), leader, weights, propose,
+                write, n, f, delta, ROUNDS_AMORTIZATION);
+    }
+
+    /**
+     * Checks the latencies delivered since the last check for a straggler among the replicas in R_max and the leader
+     *
+     * @return straggler or -1 if there is none or detection is disabled
+     */
+    private int detectStraggler() {
+        Monitor monitor = Monitor.getInstance(viewControl);
+        if (stragglerDetector == null || monitor.getDeliveredMeasurements() == checkedMeasurements) {
+            return -1;
+        }
+        checkedMeasurements = monitor.getDeliveredMeasurements();
+
+        Set<Integer> rMax = current.getR_max();
+        int[] watched = new int[rMax.size() + 1];
+        int i = 0;
+        for (int r : rMax) {
+            watched[i++] = r;
+        }
+        watched[i] = executionManager.getCurrentLeader();
+        return stragglerDetector.findStraggler(latestWrite(), latestSeqs(), watched);
+    }
+
+    /**
+     * Sequence numbers of the measurements last delivered from every replica, 0 for replicas that never delivered any
+     */
+    private int[] latestSeqs() {
+        Monitor monitor = Monitor.getInstance(viewControl);
+        int[] seqs = new int[viewControl.getCurrentViewN()];
+        for (int i = 0; i < seqs.length; i++) {
+            Measurements li = monitor.getLastMeasurements(i);
+            seqs[i] = li != null ? li.seq : 0;
+        }
+        return seqs;
+    }
+
+    /**
+     * Sanitized WRITE latencies last delivered from every replica
+     */
+    private long[][] latestWrite() {
+        Monitor monitor = Monitor.getInstance(viewControl);
+        int n = viewControl.getCurrentViewN();
+        Long[][] write_ast = monitor.sanitize(monitor.getLatestM_write());
+        long[][] write = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                write[i][j] = write_ast[i][j];
+            }
+        }
+        return write;
+    }
+
+
+    /**
+     * Starts the search for the best configuration that will be applied at consensus targetCid in the background.
+     * The snapshot is taken now and seeded with targetCid, so that the result only depends on the state all correct
+     * replicas agree on at the current consensus instance.
+     *
+     * @param targetCid consensus id at which the result will be applied
+     */
+    private void precompute(int targetCid) {
+        Snapshot snapshot = takeSnapshot(targetCid);
+        precomputationCid = targetCid;
+        precomputation = getPrecomputationExecutor().submit(() -> computeBest(snapshot));
+        logger.debug("Started precomputation of the best configuration for consensus " + targetCid);
+    }
+
+    /**
+     * Starts the search for the best configuration to demote a straggler in the background, on the latencies last
+     * delivered from every replica. It runs after the background search that may still be running, since both share
+     * the search state, and is applied at consensus targetCid like a precomputation.
+     *
+     * @param cid       consensus id the snapshot is taken at
+     * @param targetCid consensus id at which the result will be applied
+     */
+    private void startDemotion(int cid, int targetCid) {
+        Snapshot snapshot = takeSnapshot(cid, true);
+        demotionCid = targetCid;
+        demotion = getPrecomputationExecutor().submit(() -> computeBest(snapshot));
+        logger.debug("Started the search for a configuration without the straggler for consensus " + targetCid);
+    }
+
+    private ExecutorService getPrecomputationExecutor() {
+        if (precomputationExecutor == null) {
+            precomputationExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "AWARE precomputation");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return precomputationExecutor;
+    }
+
+    /**
+     * Gets the result of the background search for consensus cid and waits for it if it did not finish yet. The
+     * result is discarded if no search has been started for cid, or if the weights or the leader it started from are
+     * not the ones installed now (e.g., a straggler has been demoted in between). Both only depend on the replicated
+     * state, hence all correct replicas discard the same results.
+     *
+     * @param cid consensus id
+     * @return best configuration and the current one with its predicted latency, or null to keep the current one
+     */
+    private Result awaitPrecomputation(int cid) {
+        Future<Result> future = precomputation;
+        precomputation = null;
+        return await(future, precomputationCid, cid);
+    }
+
+    /**
+     * Gets the result of the search for a configuration without a straggler, see awaitPrecomputation(int)
+     *
+     * @param cid consensus id
+     * @return best configuration and the current one with its predicted latency, or null to keep the current one
+     */
+    private Result awaitDemotion(int cid) {
+        Future<Result> future = demotion;
+        int searchCid = demotionCid;
+        demotion = null;
+        demotionCid = -1;
+        return await(future, searchCid, cid);
+    }
+
+    private Result await(Future<Result> future, int searchCid, int cid) {
+        if (future == null || searchCid != cid) {
+            logger.warn("No precomputed configuration for consensus " + cid + ", keeping the current one");
+            return null;
+        }
+        Result result;
+        try {
+            result = future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Precomputation of the best configuration failed, keeping the current one", e);
+            return null;
+        }
+        if (!result.current.getWeightConfiguration().equals(current)
+                || result.current.getLeader() != executionManager.getCurrentLeader()) {
+            logger.info("|AWARE|-" + cid + " configuration changed since the precomputation started, keeping it");
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Output of a search for the best configuration
+     */
+    private static class Result {
+
+        private final AwareConfiguration best;
+        private final AwareConfiguration current; // including its predicted latency
+
+        private Result(AwareConfiguration best, AwareConfiguration current) {
+            this.best = best;
+            this.current = current;
+        }
+    }
+
+    /**
+     * Replicated state after a consensus instance
+     */
+    private static class State {
+
+        private final Monitor.State monitor;
+        private final WeightConfiguration weights;
+        private final AwareConfiguration candidate; // hysteresis state of the reconfiguration policy
+        private final int confirmations;
+        private final long[][] baseline; // straggler detection, null if there is no baseline yet
+        private final int[] baselineSeqs;
+        private final long checkedMeasurements;
+        private final int precomputationCid;
+        private final Future<Result> precomputation; // search started at or before cid and applied after it
+        private final int demotionCid;
+        private final Future<Result> demotion; // search for a configuration without a straggler, applied after cid
+
+        private State(Monitor.State monitor, WeightConfiguration weights, AwareConfiguration candidate,
+                      int confirmations, long[][] baseline, int[] baselineSeqs, long checkedMeasurements,
+                      int precomputationCid, Future<Result> precomputation, int demotionCid,
+                      Future<Result> demotion) {
+            this.monitor = monitor;
+            this.weights = weights;
+            this.candidate = candidate;
+            this.confirmations = confirmations;
+            this.baseline = baseline;
+            this.baselineSeqs = baselineSeqs;
+            this.checkedMeasurements = checkedMeasurements;
+            this.precomputationCid = precomputationCid;
+            this.precomputation = precomputation;
+            this.demotionCid = demotionCid;
+            this.demotion = demotion;
+        }
+    }
+
+    /**
+     * Input of a search for the best configuration
+     */
+    private static class Snapshot {
+
+        private final int cid;
+        private final long[][] propose;
+        private final long[][] write;
+        private final long[][][] proposeQuantiles;
+        private final long[][][] writeQuantiles;
+        private final WeightConfiguration weights;
+        private final int leader;
+        private final ThroughputModel model;
+        private final ProcessingDelayModel processing;
+
+        private Snapshot(int cid, long[][] propose, long[][] write, long[][][] proposeQuantiles,
+                         long[][][] writeQuantiles, WeightConfiguration weights, int leader, ThroughputModel model,
+                         ProcessingDelayModel processing) {
+            this.cid = cid;
+            this.propose = propose;
+            this.write = write;
+            this.proposeQuantiles = proposeQuantiles;
+            this.writeQuantiles = writeQuantiles;
+            this.weights = weights;
+            this.leader = leader;
+            this.model = model;
+            this.processing = processing;
         }
     }
 
@@ -278,6 +1069,10 @@ public class AwareController {
      * Getter and Setter
      **/
 
+    public PredictionAccuracy getAccuracy() {
+        return accuracy;
+    }
+
     public WeightConfiguration getCurrent() {
         return current;
     }
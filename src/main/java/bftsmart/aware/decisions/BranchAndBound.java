@@ -0,0 +1,301 @@
+package bftsmart.aware.decisions;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Exact search for the best AWARE configuration that prunes the search space with a branch-and-bound strategy.
+ *
+ * The search space is traversed as a binary tree in which every level decides whether a replica is drawn into R_max
+ * or not. The leaves are visited in the same order in which {@link WeightConfiguration#allPossibleWeightConfigurations}
+ * lists the weight configurations, and leaders are tried in ascending order, as in the exhaustive search.
+ *
+ * For every inner node and leader a lower bound of the predicted latency of all configurations in the subtree is
+ * computed. The bound relaxes the simulation in two ways: (1) the first consensus round is a lower bound of the
+ * amortized latency, since later rounds can only start later, and (2) every replica assumes that the undecided replicas
+ * whose votes arrive first are the ones drawn into R_max. A subtree is pruned only if its bound is strictly larger
+ * than the best latency found so far, thus all optimal configurations are still simulated and the selection (the
+ * first optimal configuration, preferring the current leader) equals the one of the exhaustive search.
+ *
+ * If a tail latency percentile is predicted, the bound is computed for every drawn latency matrix of the
+ * {@link TailLatencyModel}. Since every simulated latency is at least as large as the bound of its matrix, the
+ * percentile of the bounds is a lower bound of the percentile of the latencies.
+ *
+ * @author cb
+ */
+public class BranchAndBound {
+
+    // Tolerance for the accumulated weight in the bound: it must never cross the quorum later than the simulation
+    private static final double EPSILON = 1e-9;
+
+    private static final int R_MIN = 0;
+    private static final int R_MAX = 1;
+    private static final int UNDECIDED = 2;
+
+    private final Simulator simulator;
+    private final ThroughputModel model;
+    private final TailLatencyModel tail;
+    private final PredictionCache cache;
+    private final PredictionCache.Fingerprint fingerprint;
+
+    private final int[] replicaSet;
+    private final long[][] propose;
+    private final long[][] write;
+    private final int n;
+    private final int f;
+    private final int delta;
+    private final int u;
+    private final int rounds;
+    private final boolean isBFT;
+    private final boolean leaderSelection;
+    private final int currentLeader;
+
+    private final double V_min;
+    private final double V_max;
+    private final double Q_v;
+
+    // Search state: decision for every replica (indexed by replica id)
+    private final int[] state;
+
+    // Scratch buffers for the bound
+    private final long[] t_proposed;
+    private final long[] t_write_finished;
+    private final long[] votes;
+    private final long[] sampleBounds;
+
+    // Results
+    private long bestLatency = Long.MAX_VALUE;
+    private AwareConfiguration best;
+    private AwareConfiguration bestWithCurrentLeader;
+    private int examined = 0;
+    private int pruned = 0;
+
+    /**
+     * Creates a new search
+     *
+     * @param simulator       simulator used for the predictions
+     * @param model           throughput model for the optimization objective, may be null
+     * @param tail            tail latency model, may be null if the median latency is predicted
+     * @param cache           prediction cache, may be null
+     * @param fingerprint     fingerprint of the latency matrices, may be null if no cache is used
+     * @param replicaSet      all replicas
+     * @param propose         sanitized PROPOSE latencies, including transmission times if a model is used
+     * @param write           sanitized WRITE/ACCEPT latencies
+     * @param n               system size
+     * @param f               number of faults
+     * @param delta           number of additional spare replicas
+     * @param u               number of V_max replicas: 2f (BFT) or f (CFT)
+     * @param rounds          number of consensus rounds used for calculation of amortized costs
+     * @param isBFT           true if the BFT protocol is simulated
+     * @param leaderSelection true if leaders in R_max are searched, false if the current leader is kept
+     * @param currentLeader   the current leader
+     */
+    public BranchAndBound(Simulator simulator, ThroughputModel model, TailLatencyModel tail, PredictionCache cache,
+                          PredictionCache.Fingerprint fingerprint, int[] replicaSet, long[][] propose,
+                          long[][] write, int n, int f, int delta, int u, int rounds, boolean isBFT,
+                          boolean leaderSelection, int currentLeader) {
+        this.simulator = simulator;
+        this.model = model;
+        this.tail = tail;
+        this.cache = cache;
+        this.fingerprint = fingerprint;
+        this.replicaSet = replicaSet;
+        this.propose = propose;
+        this.write = write;
+        this.n = n;
+        this.f = f;
+        this.delta = delta;
+        this.u = u;
+        this.rounds = rounds;
+        this.isBFT = isBFT;
+        this.leaderSelection = leaderSelection;
+        this.currentLeader = currentLeader;
+
+        this.V_min = 1.00;
+        this.V_max = V_min + (double) delta / (double) f;
+        this.Q_v = isBFT ? 2 * f * V_max + 1 : f * V_max + 1;
+
+        this.state = new int[n];
+        this.t_proposed = new long[n];
+        this.t_write_finished = new long[n];
+        this.votes = new long[n];
+        this.sampleBounds = tail != null ? new long[tail.getSamples()] : null;
+    }
+
+    /**
+     * Searches the best configuration
+     *
+     * @return the best configuration, including its predicted latency
+     */
+    public AwareConfiguration search() {
+        Arrays.fill(state, UNDECIDED);
+        branch(0, 0);
+        return bestWithCurrentLeader != null ? bestWithCurrentLeader : best;
+    }
+
+    private void branch(int position, int chosen) {
+        int slots = u - chosen;
+
+        if (position == replicaSet.length) {
+            if (slots == 0) {
+                evaluate();
+            }
+            return;
+        }
+        if (slots > replicaSet.length - position) {
+            return; // not enough replicas left to fill R_max
+        }
+        if (position > 0 && lowerBound(slots) > bestLatency) {
+            pruned++;
+            return;
+        }
+
+        int replica = replicaSet[position];
+
+        // Visit combinations containing the replica first, as in the exhaustive search
+        if (slots > 0) {
+            state[replica] = R_MAX;
+            branch(position + 1, chosen + 1);
+        }
+        state[replica] = R_MIN;
+        branch(position + 1, chosen);
+
+        state[replica] = UNDECIDED;
+    }
+
+    private void evaluate() {
+        TreeSet<Integer> R_max = new TreeSet<>();
+        TreeSet<Integer> R_min = new TreeSet<>();
+        for (int i : replicaSet) {
+            if (state[i] == R_MAX) {
+                R_max.add(i);
+            } else {
+                R_min.add(i);
+            }
+        }
+        WeightConfiguration w = new WeightConfiguration(R_max, R_min);
+
+        if (leaderSelection) {
+            for (int leader : R_max) {
+                evaluate(w, leader);
+            }
+        } else {
+            evaluate(w, currentLeader);
+        }
+    }
+
+    private void evaluate(WeightConfiguration w, int leader) {
+        if (leaderBound(leader, 0) > bestLatency) {
+            pruned++;
+            return;
+        }
+        examined++;
+        long latency = simulator.predictCost(model, tail, cache, fingerprint, replicaSet, leader, w, propose, write,
+                n, f, delta, rounds);
+
+        if (latency < bestLatency) {
+            bestLatency = latency;
+            best = new AwareConfiguration(w, leader, latency);
+            bestWithCurrentLeader = leader == currentLeader ? best : null;
+        } else if (latency == bestLatency && bestWithCurrentLeader == null && leader == currentLeader) {
+            bestWithCurrentLeader = new AwareConfiguration(w, leader, latency);
+        }
+    }
+
+    /**
+     * Lower bound of the predicted latency of all configurations that complete the current partial assignment
+     *
+     * @param slots number of replicas that still have to be drawn into R_max
+     * @return lower bound
+     */
+    private long lowerBound(int slots) {
+        long bound = Long.MAX_VALUE;
+        if (leaderSelection) {
+            for (int leader : replicaSet) {
+                if (state[leader] == R_MAX) {
+                    bound = Math.min(bound, leaderBound(leader, slots));
+                } else if (state[leader] == UNDECIDED && slots > 0) {
+                    // The leader is a member of R_max
+                    state[leader] = R_MAX;
+                    bound = Math.min(bound, leaderBound(leader, slots - 1));
+                    state[leader] = UNDECIDED;
+                }
+            }
+        } else {
+            bound = leaderBound(currentLeader, slots);
+        }
+        return bound;
+    }
+
+    /**
+     * Lower bound of the predicted cost for a given leader. The cost of the throughput model grows with the latency,
+     * hence a lower bound of the latency yields a lower bound of the cost.
+     */
+    private long leaderBound(int leader, int slots) {
+        long latency;
+        if (tail != null) {
+            for (int s = 0; s < sampleBounds.length; s++)
+                sampleBounds[s] = latencyBound(leader, slots, tail.getProposeSample(s), tail.getWriteSample(s));
+            latency = tail.percentile(sampleBounds);
+        } else {
+            latency = latencyBound(leader, slots, propose, write);
+        }
+        return model == null || latency == Long.MAX_VALUE ? latency : model.cost(latency, leader);
+    }
+
+    /**
+     * Lower bound of the predicted latency for a given leader: decision time of the leader in the first round of the
+     * simulation, with optimistic weights for undecided replicas
+     */
+    private long latencyBound(int leader, int slots, long[][] propose, long[][] write) {
+        for (int i : replicaSet)
+            t_proposed[i] = propose[leader][i];
+
+        if (isBFT) {
+            for (int i : replicaSet) {
+                int k = 0;
+                for (int j : replicaSet)
+                    votes[k++] = encode(t_proposed[j] + write[j][i], state[j]);
+                t_write_finished[i] = optimisticQuorumTime(k, slots);
+            }
+        }
+
+        int k = 0;
+        for (int j : replicaSet)
+            votes[k++] = encode((isBFT ? t_write_finished[j] : t_proposed[leader]) + write[j][leader], state[j]);
+        return optimisticQuorumTime(k, slots);
+    }
+
+    private static long encode(long arrival, int state) {
+        return (arrival << 2) | state;
+    }
+
+    /**
+     * Earliest time at which a quorum can be formed, if the first undecided votes to arrive are cast by R_max members
+     */
+    private long optimisticQuorumTime(int k, int slots) {
+        Arrays.sort(votes, 0, k);
+
+        double weight = 0.00;
+        for (int x = 0; x < k; x++) {
+            int s = (int) (votes[x] & 3);
+            if (s == R_MAX || (s == UNDECIDED && slots-- > 0)) {
+                weight += V_max;
+            } else {
+                weight += V_min;
+            }
+            if (weight >= Q_v - EPSILON) {
+                return votes[x] >> 2;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public int getExamined() {
+        return examined;
+    }
+
+    public int getPruned() {
+        return pruned;
+    }
+}
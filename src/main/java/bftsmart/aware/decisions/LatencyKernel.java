@@ -0,0 +1,190 @@
+package bftsmart.aware.decisions;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free variant of the PredictLatency algorithm implemented in {@link Simulator}. It simulates the same
+ * protocol run but works on primitive scratch buffers that are allocated once and reused across predictions, and it
+ * returns a primitive long instead of a boxed value.
+ *
+ * The votes a replica receives are kept in a binary min-heap on primitive arrays (arrival time and weight) instead
+ * of a priority queue of boxed votes. The heap performs the same sift operations as java.util.PriorityQueue, hence
+ * votes with equal arrival times are consumed in the same order as in the reference implementation. This matters
+ * because voting weights are accumulated in floating point arithmetic: sorting the votes by arrival time would
+ * consume equal-time votes of different weights in a different order and may round the accumulated weight to the
+ * other side of the quorum threshold. Polling stops as soon as a quorum is formed, so most of the heap is never
+ * sorted. The predictions are bit-identical to
+ * {@link Simulator#predictLatency(int[], int, WeightConfiguration, long[][], long[][], int, int, int, int)}.
+ *
+ * A kernel is not thread-safe, every thread has to use its own instance.
+ *
+ * @author cb
+ */
+public class LatencyKernel {
+
+    private final boolean isBFT;
+
+    private int capacity;
+
+    // Scratch buffers, reused across rounds and predictions
+    private double[] V;
+    private long[] offsets;
+    private long[] t_proposed;
+    private long[] t_write_finished;
+    private long[] t_decided;
+    private long[] heapArrivals;
+    private double[] heapWeights;
+    private int heapSize;
+
+    /**
+     * Creates a new kernel
+     *
+     * @param isBFT    true if the BFT protocol is simulated, false for CFT
+     * @param capacity initial system size the buffers are allocated for, buffers grow if necessary
+     */
+    public LatencyKernel(boolean isBFT, int capacity) {
+        this.isBFT = isBFT;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.V = new double[capacity];
+        this.offsets = new long[capacity];
+        this.t_proposed = new long[capacity];
+        this.t_write_finished = new long[capacity];
+        this.t_decided = new long[capacity];
+        this.heapArrivals = new long[capacity];
+        this.heapWeights = new double[capacity];
+    }
+
+    /**
+     * Predicts the latency of the SMR system for a given weight configuration and leader selection
+     *
+     * @param replicaSet   all replicas
+     * @param leader       selected leader for protocol simulation
+     * @param weightConfig weight configuration to be simulated
+     * @param m_propose    sanitized PROPOSE latencies
+     * @param m_write      sanitized WRITE/ACCEPT latencies
+     * @param n            system size
+     * @param f            number of faults
+     * @param delta        number of additional spare replicas
+     * @param rounds       number of consensus rounds used for calculation of amortized costs (calculation depth)
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictLatency(int[] replicaSet, int leader, WeightConfiguration weightConfig, long[][] m_propose,
+                               long[][] m_write, int n, int f, int delta, int rounds) {
+
+        if (n > capacity) {
+            allocate(n);
+        }
+
+        // Compute weights and quorum
+        double V_min = 1.00;
+        double V_max = V_min + (double) delta / (double) f;
+        double Q_v = isBFT ? 2 * f * V_max + 1 : f * V_max + 1;
+
+        // Assign binary voting weights to replicas
+        for (int i : replicaSet)
+            V[i] = weightConfig.getR_max().contains(i) ? V_max : V_min;
+
+        Arrays.fill(offsets, 0, n, 0L);
+
+        long sum = 0L;
+        for (int r = 0; r < rounds; r++) {
+
+            Arrays.fill(t_decided, 0, n, 0L);
+
+            // Proposed time: replica i received the PROPOSE and has finished its last consensus
+            for (int i : replicaSet)
+                t_proposed[i] = Math.max(offsets[i], m_propose[leader][i]);
+
+            // Time at which replica i finishes its WRITE quorum
+            for (int i : replicaSet) {
+                heapSize = 0;
+                for (int j : replicaSet)
+                    offer(t_proposed[j] + m_write[j][i], V[j]);
+                t_write_finished[i] = quorumTime(Q_v);
+            }
+
+            // Time at which replica i decides a value (finishes consensus)
+            // CFT: we use proposed instead of write_finished because WRITE is skipped
+            for (int i : replicaSet) {
+                heapSize = 0;
+                for (int j : replicaSet)
+                    offer((isBFT ? t_write_finished[j] : t_proposed[i]) + m_write[j][i], V[j]);
+                t_decided[i] = quorumTime(Q_v);
+            }
+            sum += t_decided[leader];
+
+            // Compute offsets (time the other replicas need to finish their consensus round relative to the leader)
+            for (int i = 0; i < n; i++)
+                offsets[i] = t_decided[i] > t_decided[leader] ? t_decided[i] - t_decided[leader] : 0L;
+        }
+
+        return sum / rounds;
+    }
+
+    /**
+     * Polls votes in order of their arrival until a weighted quorum is formed
+     *
+     * @param Q_v quorum weight
+     * @return arrival time of the vote completing the quorum
+     */
+    private long quorumTime(double Q_v) {
+        double votes = 0.00;
+        long t = Long.MAX_VALUE;
+        while (votes < Q_v && heapSize > 0) {
+            votes += heapWeights[0];
+            t = poll();
+        }
+        return t;
+    }
+
+    /**
+     * Inserts a vote into the heap, equivalent to PriorityQueue.offer
+     */
+    private void offer(long arrival, double weight) {
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (arrival >= heapArrivals[parent])
+                break;
+            heapArrivals[k] = heapArrivals[parent];
+            heapWeights[k] = heapWeights[parent];
+            k = parent;
+        }
+        heapArrivals[k] = arrival;
+        heapWeights[k] = weight;
+    }
+
+    /**
+     * Removes the earliest vote from the heap, equivalent to PriorityQueue.poll
+     *
+     * @return arrival time of the removed vote
+     */
+    private long poll() {
+        long result = heapArrivals[0];
+        int size = --heapSize;
+        if (size > 0) {
+            long arrival = heapArrivals[size];
+            double weight = heapWeights[size];
+            int half = size >>> 1;
+            int k = 0;
+            while (k < half) {
+                int child = (k << 1) + 1;
+                int right = child + 1;
+                if (right < size && heapArrivals[child] > heapArrivals[right])
+                    child = right;
+                if (arrival <= heapArrivals[child])
+                    break;
+                heapArrivals[k] = heapArrivals[child];
+                heapWeights[k] = heapWeights[child];
+                k = child;
+            }
+            heapArrivals[k] = arrival;
+            heapWeights[k] = weight;
+        }
+        return result;
+    }
+}
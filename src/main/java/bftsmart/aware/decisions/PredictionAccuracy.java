@@ -0,0 +1,109 @@
+package bftsmart.aware.decisions;
+
+import bftsmart.aware.monitoring.LatencySketch;
+import bftsmart.aware.monitoring.Monitor;
+
+/**
+ * Tracks how well the simulator predicts the consensus latency of the active configuration.
+ *
+ * The simulator predicts the latency of a consensus instance from the leader's perspective, from sending the PROPOSE
+ * to deciding. The leader observes exactly this latency for every decision, so the tracker compares the median of the
+ * observed latencies with the prediction of the active (weights, leader) pair. Observations start over whenever the
+ * active pair changes.
+ *
+ * Observations are local to a replica and are not used for decisions, which have to be the same in all replicas.
+ *
+ * @author cb
+ */
+public class PredictionAccuracy {
+
+    private static final double SKETCH_ACCURACY = 0.01;
+
+    private final long horizon;
+
+    // Active configuration and its predicted latency (ns)
+    private WeightConfiguration weights;
+    private int leader = -1;
+    private long predicted = -1;
+
+    // Latencies observed since the pair became active
+    private LatencySketch observed;
+    private long observations = 0;
+
+    /**
+     * Creates a tracker
+     *
+     * @param horizon time constant (ns) with which old observations fade out
+     */
+    public PredictionAccuracy(long horizon) {
+        this.horizon = horizon;
+    }
+
+    /**
+     * Sets the active configuration and its predicted latency, called after every optimization
+     *
+     * @param weights   active weight configuration
+     * @param leader    active leader
+     * @param predicted predicted consensus latency (ns)
+     */
+    public synchronized void activate(WeightConfiguration weights, int leader, long predicted) {
+        if (!weights.equals(this.weights) || leader != this.leader) {
+            this.weights = weights;
+            this.leader = leader;
+            this.observed = new LatencySketch(SKETCH_ACCURACY, horizon, System.nanoTime());
+            this.observations = 0;
+        }
+        this.predicted = predicted;
+    }
+
+    /**
+     * Records the latency of a consensus instance this replica led
+     *
+     * @param latency latency from proposing to deciding (ns)
+     */
+    public synchronized void observe(long latency) {
+        if (observed != null && latency > 0) {
+            observed.add(latency, System.nanoTime());
+            observations++;
+        }
+    }
+
+    /**
+     * Gets the median of the observed consensus latencies
+     *
+     * @return median (ns), or Monitor.MISSING_VALUE if there are no recent observations
+     */
+    public synchronized long getObservedLatency() {
+        return observed == null ? Monitor.MISSING_VALUE : observed.quantile(0.50, System.nanoTime());
+    }
+
+    /**
+     * Gets the error of the prediction relative to the predicted latency, positive if consensus is slower than
+     * predicted
+     *
+     * @return relative error, or NaN if there is no prediction or no recent observation
+     */
+    public synchronized double getRelativeError() {
+        long latency = getObservedLatency();
+        if (predicted <= 0 || latency == Monitor.MISSING_VALUE) {
+            return Double.NaN;
+        }
+        return (double) (latency - predicted) / predicted;
+    }
+
+    public synchronized long getPredictedLatency() {
+        return predicted;
+    }
+
+    public synchronized long getObservations() {
+        return observations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long latency = getObservedLatency();
+        return "predicted " + predicted / 1000000.00 + " ms, observed "
+                + (latency == Monitor.MISSING_VALUE ? "-" : latency / 1000000.00 + " ms") + " (median of "
+                + observations + " decisions), error " + Math.round(getRelativeError() * 10000) / 100.00 + " %";
+    }
+}
@@ -0,0 +1,186 @@
+package bftsmart.aware.decisions;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache for predicted latencies. A prediction is a pure function of the links the simulated configuration
+ * reads and of the configuration itself, so it can be reused as long as these links did not change. The simulation of
+ * a configuration reads the PROPOSE latencies of its leader and all WRITE/ACCEPT latencies. Entries are therefore keyed
+ * by the leader's row of the PROPOSE matrix, the WRITE matrix, the weight configuration and the leader, and are evicted
+ * in LRU order. When only the PROPOSE latencies of some replica change, the predictions for configurations led by
+ * other replicas are still hits; a change of any WRITE latency invalidates all entries.
+ *
+ * To let small jitter in the measurements hit the cache, the matrices are quantized before they are fingerprinted
+ * and simulated. The predictions are always computed on the quantized matrices, whether they come from the cache or
+ * not, hence a replica that starts with an empty cache reaches the same decision as a replica with a warm cache. Note
+ * that enabling the cache thus changes the decisions compared to a search without cache, which uses the exact
+ * latencies; all replicas have to use the same cache settings. Keys compare the full quantized links, so a hash
+ * collision never returns a wrong prediction.
+ *
+ * @author cb
+ */
+public class PredictionCache {
+
+    public static final long NOT_CACHED = -1L;
+
+    private final int capacity;
+    private final long quantum;
+
+    private final LinkedHashMap<Key, Long> predictions;
+
+    // Statistics
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a new prediction cache
+     *
+     * @param capacity maximum number of cached predictions
+     * @param quantum  granularity (in ns) latencies are rounded to before they are used for predictions
+     */
+    public PredictionCache(int capacity, long quantum) {
+        this.capacity = capacity;
+        this.quantum = Math.max(quantum, 1L);
+        this.predictions = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > PredictionCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Rounds all latencies of a matrix to the nearest multiple of the quantum
+     *
+     * @param m latency matrix
+     * @return quantized copy of the latency matrix
+     */
+    public long[][] quantize(long[][] m) {
+        long[][] quantized = new long[m.length][];
+        for (int i = 0; i < m.length; i++) {
+            quantized[i] = new long[m[i].length];
+            for (int j = 0; j < m[i].length; j++) {
+                quantized[i][j] = ((m[i][j] + quantum / 2) / quantum) * quantum;
+            }
+        }
+        return quantized;
+    }
+
+    /**
+     * Creates the fingerprint of the (quantized) latency matrices a search is based on
+     *
+     * @param m_propose PROPOSE latencies
+     * @param m_write   WRITE/ACCEPT latencies
+     * @return fingerprint
+     */
+    public Fingerprint fingerprint(long[][] m_propose, long[][] m_write) {
+        return new Fingerprint(m_propose, m_write);
+    }
+
+    /**
+     * Looks up a prediction
+     *
+     * @param fingerprint  fingerprint of the latency matrices
+     * @param weightConfig weight configuration
+     * @param leader       leader
+     * @return the cached prediction or NOT_CACHED
+     */
+    public synchronized long get(Fingerprint fingerprint, WeightConfiguration weightConfig, int leader) {
+        Long prediction = predictions.get(new Key(fingerprint, weightConfig, leader));
+        if (prediction == null) {
+            misses++;
+            return NOT_CACHED;
+        }
+        hits++;
+        return prediction;
+    }
+
+    /**
+     * Stores a prediction
+     *
+     * @param fingerprint  fingerprint of the latency matrices
+     * @param weightConfig weight configuration, must not be modified afterwards
+     * @param leader       leader
+     * @param prediction   predicted latency
+     */
+    public synchronized void put(Fingerprint fingerprint, WeightConfiguration weightConfig, int leader,
+                                 long prediction) {
+        predictions.put(new Key(fingerprint, weightConfig, leader), prediction);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return predictions.size();
+    }
+
+    /**
+     * Fingerprint of the PROPOSE and WRITE latency matrices, split into the links read by configurations with the
+     * same leader
+     */
+    public static class Fingerprint {
+
+        private final long[][] proposeRows;
+        private final int[] proposeHashes;
+        private final long[] write;
+        private final int writeHash;
+
+        private Fingerprint(long[][] m_propose, long[][] m_write) {
+            int n = m_propose.length;
+            this.proposeRows = new long[n][];
+            this.proposeHashes = new int[n];
+            this.write = new long[n * n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                proposeRows[i] = m_propose[i].clone();
+                proposeHashes[i] = Arrays.hashCode(proposeRows[i]);
+                for (int j = 0; j < n; j++) {
+                    write[k++] = m_write[i][j];
+                }
+            }
+            this.writeHash = Arrays.hashCode(write);
+        }
+    }
+
+    private static class Key {
+
+        private final long[] propose;
+        private final long[] write;
+        private final WeightConfiguration weightConfig;
+        private final int leader;
+        private final int hash;
+
+        private Key(Fingerprint fingerprint, WeightConfiguration weightConfig, int leader) {
+            this.propose = fingerprint.proposeRows[leader];
+            this.write = fingerprint.write;
+            this.weightConfig = weightConfig;
+            this.leader = leader;
+            this.hash = 31 * (31 * (31 * fingerprint.proposeHashes[leader] + fingerprint.writeHash)
+                    + weightConfig.getR_max().hashCode()) + leader;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return leader == that.leader && hash == that.hash
+                    && weightConfig.getR_max().equals(that.weightConfig.getR_max())
+                    && (propose == that.propose || Arrays.equals(propose, that.propose))
+                    && (write == that.write || Arrays.equals(write, that.write));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
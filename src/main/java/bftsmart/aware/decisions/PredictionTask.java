@@ -0,0 +1,102 @@
+package bftsmart.aware.decisions;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task that computes the predicted latencies of a slice of the AWARE search space. The slice is split in
+ * halves until it is small enough to be simulated by a single worker.
+ *
+ * Every task only writes the predicted latency into the configurations of its own slice, so the list keeps the order
+ * in which the search space was generated. Selecting the best configuration afterwards therefore yields the same
+ * result as the sequential search, no matter how the work was scheduled.
+ *
+ * @author cb
+ */
+public class PredictionTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 4712385907430126853L;
+
+    // Below this number of configurations, the slice is simulated sequentially
+    public static final int SEQUENTIAL_THRESHOLD = 32;
+
+    private final Simulator simulator;
+    private final ThroughputModel model;
+    private final TailLatencyModel tail;
+    private final PredictionCache cache;
+    private final PredictionCache.Fingerprint fingerprint;
+    private final List<AwareConfiguration> configurations;
+    private final int from;
+    private final int to;
+
+    private final int[] replicaSet;
+    private final long[][] propose;
+    private final long[][] write;
+    private final int n;
+    private final int f;
+    private final int delta;
+    private final int rounds;
+
+    /**
+     * Creates a task that predicts the latencies of all configurations
+     *
+     * @param simulator      simulator used for the predictions
+     * @param model          throughput model for the optimization objective, may be null
+     * @param tail           tail latency model, may be null if the median latency is predicted
+     * @param cache          prediction cache, may be null
+     * @param fingerprint    fingerprint of the latency matrices, may be null if no cache is used
+     * @param configurations the search space
+     * @param replicaSet     all replicas
+     * @param propose        sanitized PROPOSE latencies
+     * @param write          sanitized WRITE/ACCEPT latencies
+     * @param n              system size
+     * @param f              number of faults
+     * @param delta          number of additional spare replicas
+     * @param rounds         number of consensus rounds used for calculation of amortized costs
+     */
+    public PredictionTask(Simulator simulator, ThroughputModel model, TailLatencyModel tail, PredictionCache cache,
+                          PredictionCache.Fingerprint fingerprint, List<AwareConfiguration> configurations,
+                          int[] replicaSet, long[][] propose, long[][] write, int n, int f, int delta, int rounds) {
+        this(simulator, model, tail, cache, fingerprint, configurations, 0, configurations.size(), replicaSet,
+                propose, write, n, f, delta, rounds);
+    }
+
+    private PredictionTask(Simulator simulator, ThroughputModel model, TailLatencyModel tail, PredictionCache cache,
+                           PredictionCache.Fingerprint fingerprint, List<AwareConfiguration> configurations, int from,
+                           int to, int[] replicaSet, long[][] propose, long[][] write, int n, int f, int delta,
+                           int rounds) {
+        this.simulator = simulator;
+        this.model = model;
+        this.tail = tail;
+        this.cache = cache;
+        this.fingerprint = fingerprint;
+        this.configurations = configurations;
+        this.from = from;
+        this.to = to;
+        this.replicaSet = replicaSet;
+        this.propose = propose;
+        this.write = write;
+        this.n = n;
+        this.f = f;
+        this.delta = delta;
+        this.rounds = rounds;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= SEQUENTIAL_THRESHOLD) {
+            for (int i = from; i < to; i++) {
+                AwareConfiguration dwc = configurations.get(i);
+                long predictedLatency = simulator.predictCost(model, tail, cache, fingerprint, replicaSet,
+                        dwc.getLeader(), dwc.getWeightConfiguration(), propose, write, n, f, delta, rounds);
+                dwc.setPredictedLatency(predictedLatency);
+            }
+        } else {
+            int middle = (from + to) >>> 1;
+            invokeAll(new PredictionTask(simulator, model, tail, cache, fingerprint, configurations, from, middle,
+                            replicaSet, propose, write, n, f, delta, rounds),
+                    new PredictionTask(simulator, model, tail, cache, fingerprint, configurations, middle, to,
+                            replicaSet, propose, write, n, f, delta, rounds));
+        }
+    }
+}
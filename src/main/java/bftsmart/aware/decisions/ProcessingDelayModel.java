@@ -0,0 +1,83 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Models the time replicas need to process consensus messages.
+ *
+ * Every replica reports how long it takes from receiving a PROPOSE until it sends its WRITE (verifying the proposal),
+ * and from forming a WRITE quorum until it sends its ACCEPT (signing the proof). A replica with fast links but a
+ * saturated CPU thus no longer looks like an ideal member of R_max or leader.
+ *
+ * The delays are folded into the latency matrices, like the transmission times of the throughput model, so that all
+ * predictions (simulator, branch-and-bound, heuristics, tail latencies and the prediction cache) take them into
+ * account without further changes: the PROPOSE delay of replica j is added to all PROPOSE latencies towards j, the
+ * ACCEPT delay of j to all WRITE/ACCEPT latencies from j. Since the latter also delays the WRITE of j, it is
+ * subtracted from the PROPOSE latencies towards j again. This is exact unless the simulator lets replica j start
+ * after the PROPOSE arrived (because it still finishes the previous consensus instance), then the error is bounded by
+ * the difference of both delays of j. Adjusted PROPOSE latencies are not negative: if the ACCEPT delay of j exceeds
+ * the PROPOSE latency towards j plus its PROPOSE delay (always on the diagonal, where the latency is 0), the PROPOSE
+ * arrives without delay and the WRITE of j is overestimated by at most the difference. In CFT mode, there is no WRITE
+ * phase and only the PROPOSE delay is modeled.
+ *
+ * @author cb
+ */
+public class ProcessingDelayModel {
+
+    private final long[] proposeDelays;
+    private final long[] acceptDelays;
+    private final boolean isBFT;
+
+    /**
+     * Creates a model
+     *
+     * @param proposeDelays proposeDelays[j] is the time (ns) replica j needs from receiving a PROPOSE to sending WRITE
+     * @param acceptDelays  acceptDelays[j] is the time (ns) replica j needs from a WRITE quorum to sending ACCEPT
+     * @param isBFT         true if the BFT protocol is simulated
+     */
+    public ProcessingDelayModel(long[] proposeDelays, long[] acceptDelays, boolean isBFT) {
+        this.proposeDelays = proposeDelays;
+        this.acceptDelays = acceptDelays;
+        this.isBFT = isBFT;
+    }
+
+    /**
+     * Adds the processing delays to PROPOSE latencies
+     *
+     * @param m_propose sanitized PROPOSE latencies
+     * @return adjusted PROPOSE latencies (a new matrix), at least 0
+     */
+    public long[][] adjustPropose(long[][] m_propose) {
+        int n = m_propose.length;
+        long[][] adjusted = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                adjusted[i][j] = Math.max(m_propose[i][j] + proposeDelays[j] - (isBFT ? acceptDelays[j] : 0L), 0L);
+            }
+        }
+        return adjusted;
+    }
+
+    /**
+     * Adds the processing delays to WRITE/ACCEPT latencies
+     *
+     * @param m_write sanitized WRITE/ACCEPT latencies
+     * @return adjusted WRITE/ACCEPT latencies (a new matrix)
+     */
+    public long[][] adjustWrite(long[][] m_write) {
+        int n = m_write.length;
+        long[][] adjusted = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                adjusted[i][j] = m_write[i][j] + (isBFT ? acceptDelays[i] : 0L);
+            }
+        }
+        return adjusted;
+    }
+
+    public long getProposeDelay(int replica) {
+        return proposeDelays[replica];
+    }
+
+    public long getAcceptDelay(int replica) {
+        return acceptDelays[replica];
+    }
+}
@@ -0,0 +1,142 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Decides whether the best configuration found by a search is worth a reconfiguration.
+ *
+ * Every change costs consensus time: a weight change installs a new view, a leader change stalls consensus until the
+ * new leader proposes. The policy estimates these costs in units of the current consensus latency and only switches
+ * if the predicted gain, amortized over a horizon of consensus instances, exceeds them. In addition, the same
+ * configuration has to win a number of consecutive optimization intervals (hysteresis), so that noise in the
+ * measurements does not make the system flap between two configurations.
+ *
+ * All inputs are decided with total order. The hysteresis state is not, a replica that recovers a state starts with
+ * the one transferred from the other replicas (see AwareController.getState), hence all correct replicas that have
+ * processed or recovered the same consensus instances reach the same decision.
+ *
+ * @author cb
+ */
+public class ReconfigurationPolicy {
+
+    private final double weightChangeCost;
+    private final double leaderChangeCost;
+    private final int horizon;
+    private final int hysteresisIntervals;
+
+    // Hysteresis state: the configuration that won the last intervals, and how often in a row
+    private AwareConfiguration candidate;
+    private int confirmations = 0;
+
+    /**
+     * Creates a policy
+     *
+     * @param weightChangeCost    consensus instances lost by a weight change
+     * @param leaderChangeCost    consensus instances lost by a leader change
+     * @param horizon             number of consensus instances the gain is amortized over
+     * @param hysteresisIntervals number of consecutive intervals a configuration has to win before it is applied
+     */
+    public ReconfigurationPolicy(double weightChangeCost, double leaderChangeCost, int horizon,
+                                 int hysteresisIntervals) {
+        this.weightChangeCost = weightChangeCost;
+        this.leaderChangeCost = leaderChangeCost;
+        this.horizon = Math.max(horizon, 1);
+        this.hysteresisIntervals = Math.max(hysteresisIntervals, 1);
+    }
+
+    /**
+     * Decides whether to switch from the current to the best configuration. Must be called once per optimization
+     * interval, since it updates the hysteresis state.
+     *
+     * @param current       current configuration, including its predicted latency
+     * @param best          best configuration, including its predicted latency
+     * @param weightsChange true if the weights of best differ from the current ones
+     * @param leaderChanges true if the leader of best differs from the current one
+     * @return true if the system should switch to best
+     */
+    public boolean accept(AwareConfiguration current, AwareConfiguration best, boolean weightsChange,
+                         boolean leaderChanges) {
+        if (!weightsChange && !leaderChanges) {
+            reset();
+            return false;
+        }
+
+        if (gain(current, best) <= cost(current, weightsChange, leaderChanges)) {
+            reset();
+            return false;
+        }
+
+        if (isCandidate(best)) {
+            confirmations++;
+        } else {
+            candidate = best;
+            confirmations = 1;
+        }
+
+        if (confirmations >= hysteresisIntervals) {
+            reset();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether to demote a straggler right away by switching from the current to the best configuration. The
+     * gain has to amortize the cost as in accept(), but no hysteresis applies: the straggler already slows down every
+     * consensus instance. A switch resets the hysteresis state.
+     *
+     * @param current       current configuration, including its predicted latency
+     * @param best          best configuration, including its predicted latency
+     * @param weightsChange true if the weights of best differ from the current ones
+     * @param leaderChanges true if the leader of best differs from the current one
+     * @return true if the system should switch to best
+     */
+    public boolean demote(AwareConfiguration current, AwareConfiguration best, boolean weightsChange,
+                          boolean leaderChanges) {
+        if ((!weightsChange && !leaderChanges) || gain(current, best) <= cost(current, weightsChange, leaderChanges)) {
+            return false;
+        }
+        reset();
+        return true;
+    }
+
+    // Lost consensus time in ns, estimated with the latency of the current configuration
+    private double cost(AwareConfiguration current, boolean weightsChange, boolean leaderChanges) {
+        return ((weightsChange ? weightChangeCost : 0.00) + (leaderChanges ? leaderChangeCost : 0.00))
+                * current.getPredictedLatency();
+    }
+
+    private double gain(AwareConfiguration current, AwareConfiguration best) {
+        return (double) (current.getPredictedLatency() - best.getPredictedLatency()) * horizon;
+    }
+
+    private boolean isCandidate(AwareConfiguration best) {
+        return candidate != null && candidate.getLeader() == best.getLeader()
+                && candidate.getWeightConfiguration().equals(best.getWeightConfiguration());
+    }
+
+    private void reset() {
+        candidate = null;
+        confirmations = 0;
+    }
+
+    public int getConfirmations() {
+        return confirmations;
+    }
+
+    /**
+     * @return configuration that won the last intervals, or null if there is none
+     */
+    public AwareConfiguration getCandidate() {
+        return candidate;
+    }
+
+    /**
+     * Restores the hysteresis state, e.g., the one of the other replicas after a state transfer
+     *
+     * @param candidate     configuration that won the last intervals, or null
+     * @param confirmations how often in a row it won
+     */
+    public void setHysteresis(AwareConfiguration candidate, int confirmations) {
+        this.candidate = candidate;
+        this.confirmations = candidate != null ? confirmations : 0;
+    }
+}
@@ -5,6 +5,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * The class contains an algorithm to predict the latency of the BFT-SMaRt consensus algorithm based on
@@ -17,10 +20,22 @@ import java.util.*;
  */
 public class Simulator {
 
+    // Simulated Annealing parameters
+    private static final double TEMPERATURE = 25000;
+    private static final double COOLING_RATE = 0.0055;
+    private static final double THRESHOLD = 0.5;
+
+    // Tabu Search parameters
+    private static final int MAX_TABU_SIZE = 10;
+
     private ServerViewController viewControl;
 
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    // Allocation-free prediction kernels, one per thread since a kernel reuses its scratch buffers
+    private final ThreadLocal<LatencyKernel> kernels = ThreadLocal.withInitial(() ->
+            new LatencyKernel((viewControl == null) || viewControl.getStaticConf().isBFT(), 0));
+
     public Simulator(ServerViewController controller) {
         this.viewControl = controller;
     }
@@ -239,37 +254,139 @@ public class Simulator {
 
 
 
+    /**
+     * Predicts the latency of the SMR system like
+     * {@link #predictLatency(int[], int, WeightConfiguration, long[][], long[][], int, int, int, int)} does, but uses
+     * the allocation-free {@link LatencyKernel} of the calling thread. Both produce identical predictions.
+     *
+     * @param replicaSet   all replicas
+     * @param leader       selected leader for protocol simulation
+     * @param weightConfig weight configuration to be simulated
+     * @param m_propose    sanitized PROPOSE latencies
+     * @param m_write      sanitized WRITE/ACCEPT latencies
+     * @param n            system size
+     * @param f            number of faults
+     * @param delta        number of additional spare replicas
+     * @param rounds       number of consensus rounds used for calculation of amortized costs (calculation depth)
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictLatencyUnboxed(int[] replicaSet, int leader, WeightConfiguration weightConfig, long[][] m_propose,
+                                      long[][] m_write, int n, int f, int delta, int rounds) {
+        return kernels.get().predictLatency(replicaSet, leader, weightConfig, m_propose, m_write, n, f, delta, rounds);
+    }
+
+
+    /**
+     * Predicts the latency of the SMR system and memoizes the prediction. If the prediction cache already contains a
+     * prediction for the same latency matrices and configuration, the simulation is skipped.
+     *
+     * @param cache        prediction cache, the prediction is computed without a cache if null
+     * @param fingerprint  fingerprint of m_propose and m_write
+     * @param replicaSet   all replicas
+     * @param leader       selected leader for protocol simulation
+     * @param weightConfig weight configuration to be simulated
+     * @param m_propose    sanitized PROPOSE latencies
+     * @param m_write      sanitized WRITE/ACCEPT latencies
+     * @param n            system size
+     * @param f            number of faults
+     * @param delta        number of additional spare replicas
+     * @param rounds       number of consensus rounds used for calculation of amortized costs (calculation depth)
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictLatencyCached(PredictionCache cache, PredictionCache.Fingerprint fingerprint, int[] replicaSet,
+                                     int leader, WeightConfiguration weightConfig, long[][] m_propose,
+                                     long[][] m_write, int n, int f, int delta, int rounds) {
+        if (cache == null) {
+            return predictLatencyUnboxed(replicaSet, leader, weightConfig, m_propose, m_write, n, f, delta, rounds);
+        }
+        long prediction = cache.get(fingerprint, weightConfig, leader);
+        if (prediction == PredictionCache.NOT_CACHED) {
+            prediction = predictLatencyUnboxed(replicaSet, leader, weightConfig, m_propose, m_write, n, f, delta, rounds);
+            cache.put(fingerprint, weightConfig, leader, prediction);
+        }
+        return prediction;
+    }
+
+
+    /**
+     * Predicts the cost of a configuration for the optimization objective of the throughput model. The latency is
+     * predicted (and memoized) as in {@link #predictLatencyCached}, or as a percentile by the tail latency model;
+     * m_propose has to include the transmission times, see {@link ThroughputModel#adjustPropose(long[][])}.
+     *
+     * @param model        throughput model, the predicted latency is returned if null
+     * @param tail         tail latency model, the amortized median latency is predicted if null
+     * @param cache        prediction cache, the prediction is computed without a cache if null
+     * @param fingerprint  fingerprint of m_propose and m_write
+     * @param replicaSet   all replicas
+     * @param leader       selected leader for protocol simulation
+     * @param weightConfig weight configuration to be simulated
+     * @param m_propose    sanitized PROPOSE latencies
+     * @param m_write      sanitized WRITE/ACCEPT latencies
+     * @param n            system size
+     * @param f            number of faults
+     * @param delta        number of additional spare replicas
+     * @param rounds       number of consensus rounds used for calculation of amortized costs (calculation depth)
+     * @return predicted cost of the configuration (smaller is better)
+     */
+    public long predictCost(ThroughputModel model, TailLatencyModel tail, PredictionCache cache,
+                            PredictionCache.Fingerprint fingerprint, int[] replicaSet, int leader,
+                            WeightConfiguration weightConfig, long[][] m_propose, long[][] m_write, int n, int f,
+                            int delta, int rounds) {
+        long latency = tail != null ? tail.predictLatency(this, replicaSet, leader, weightConfig, n, f, delta) :
+                predictLatencyCached(cache, fingerprint, replicaSet, leader, weightConfig, m_propose, m_write, n, f,
+                        delta, rounds);
+        return model == null ? latency : model.cost(latency, leader);
+    }
+
+
     public static SimulationRun simulatedAnnealing(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write, long seed) {
 
         long t1 = System.nanoTime();
         Simulator simulator = new Simulator(null);
 
         // Initialize
-        WeightConfiguration w = new WeightConfiguration(u, replicaSet);
-        AwareConfiguration x = new AwareConfiguration(w, 0);
+        AwareConfiguration x = new AwareConfiguration(new WeightConfiguration(u, replicaSet), 0);
+        Chain chain = simulator.annealingChain(n, f, delta, u, replicaSet, propose, write, x, new Random(seed),
+                COOLING_RATE, Long.MAX_VALUE);
+
+        long t2= System.nanoTime();
+        double time = ((double) (t2 - t1)) / 1000000.00; // in ms
+
+        String additionalParameters = "temperature: " + TEMPERATURE + " coolingRate: " + COOLING_RATE + " threshold: "
+                + THRESHOLD + " jumps: " + chain.jumps + " better found: " + chain.betterFound;
+
+        Simulator.printStrategyInfo("Simulated Annealing", chain.examined, chain.best, time, additionalParameters);
+
+        return simulator.new SimulationRun(time, chain.best.getPredictedLatency(), chain.best);
+    }
+
+    /**
+     * Runs one chain of simulated annealing
+     *
+     * @param start       initial configuration
+     * @param random      source of randomness of this chain
+     * @param coolingRate rate the temperature is lowered with after every step
+     * @param deadline    value of System.nanoTime() after which the chain stops early
+     * @return best configuration found by the chain
+     */
+    private Chain annealingChain(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write,
+                                 AwareConfiguration start, Random random, double coolingRate, long deadline) {
+
+        AwareConfiguration x = start;
         AwareConfiguration best = x;
-        long prediction = simulator.predictLatency(replicaSet, x.getLeader(), x.getWeightConfiguration(), propose,
-                write, n, f, delta, 10);
+        long prediction = predictLatencyUnboxed(replicaSet, x.getLeader(), x.getWeightConfiguration(),
+                propose, write, n, f, delta, 10);
         best.setPredictedLatency(prediction);
         x.setPredictedLatency(prediction);
-        Random random = new Random(seed);
 
         // Simulated Annealing parameters
-        double temp = 25000;
-        double coolingRate = 0.0055;
-        double threshold = 0.5;
-
-
-        // Debug Info
-        double initTemp = temp;
-        int examined = 0;
-        int jumps = 0;
-        int betterFound = 0;
+        double temp = TEMPERATURE;
 
+        Chain chain = new Chain();
 
-        while (temp > threshold) {
+        while (temp > THRESHOLD && System.nanoTime() < deadline) {
 
-            examined++;
+            chain.examined++;
             AwareConfiguration y = new AwareConfiguration(x.getWeightConfiguration().deepCopy(), x.getLeader());
 
             // Create a random variation of configuration x
@@ -296,19 +413,19 @@ public class Simulator {
             R_min.remove(min);
             R_min.add(max);
 
-            Long predictY = simulator.predictLatency(replicaSet, y.getLeader(), y.getWeightConfiguration(), propose, write, n, f, delta, 10);
+            long predictY = predictLatencyUnboxed(replicaSet, y.getLeader(), y.getWeightConfiguration(), propose, write, n, f, delta, 10);
 
             // If the new solution is better, it is accepted
             if (predictY < predictX) {
                 x = y;
                 x.setPredictedLatency(predictY);
-                betterFound++;
+                chain.betterFound++;
 
             } else {
                 // If the new solution is worse, calculate an acceptance probability
                 double rand = random.nextDouble();
                 if (Math.exp(-((predictY - predictX) / (temp))) > rand) {
-                    jumps++;
+                    chain.jumps++;
                     x = y;
                     x.setPredictedLatency(predictY);
                 }
@@ -324,16 +441,8 @@ public class Simulator {
             temp *= 1 - coolingRate;
         }
 
-
-        long t2= System.nanoTime();
-        double time = ((double) (t2 - t1)) / 1000000.00; // in ms
-
-        String additionalParameters = "temperature: " + initTemp + " coolingRate: " + coolingRate + " threshold: "
-                + threshold + " jumps: " + jumps + " better found: " + betterFound;
-
-        Simulator.printStrategyInfo("Simulated Annealing", examined, best, time, additionalParameters);
-
-        return simulator.new SimulationRun(time, best.getPredictedLatency(), best);
+        chain.best = best;
+        return chain;
     }
 
 
@@ -342,30 +451,54 @@ public class Simulator {
         long t1 = System.nanoTime();
 
         Simulator simulator = new Simulator(null);
-        Random random = new Random(seed);
 
         // Initialize
         AwareConfiguration x = new AwareConfiguration(new WeightConfiguration(u, replicaSet), 0);
+        Chain chain = simulator.tabuChain(n, f, delta, u, replicaSet, propose, write, x, new Random(seed), examined,
+                Long.MAX_VALUE);
+
+        long t2 = System.nanoTime();
+        double time = ((double) (t2 - t1)) / 1000000.00; // in ms
+        String additionalParams = "maxTabuSize: " + MAX_TABU_SIZE;
+        printStrategyInfo("Tabu Search", examined, chain.best, time, additionalParams);
+
+        return simulator.new SimulationRun(time, chain.best.getPredictedLatency(), chain.best);
+
+
+    }
+
+    /**
+     * Runs one tabu search
+     *
+     * @param start    initial configuration
+     * @param random   source of randomness of this search
+     * @param examined number of configurations to be examined
+     * @param deadline value of System.nanoTime() after which the search stops early
+     * @return best configuration found by the search
+     */
+    private Chain tabuChain(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write,
+                            AwareConfiguration start, Random random, int examined, long deadline) {
+
+        AwareConfiguration x = start;
         AwareConfiguration best = x;
-        long prediction = simulator.predictLatency(replicaSet, x.getLeader(), x.getWeightConfiguration(), propose,
-                write, n, f, delta, 10);
+        long prediction = predictLatencyUnboxed(replicaSet, x.getLeader(), x.getWeightConfiguration(),
+                propose, write, n, f, delta, 10);
         best.setPredictedLatency(prediction);
         x.setPredictedLatency(prediction);
-        int initExamined = examined;
 
-        int maxTabuSize = 10;
+        Chain chain = new Chain();
 
         Stack<AwareConfiguration> tabuList = new Stack<>();
         tabuList.push(x);
 
-        while (examined > 0) {
+        while (examined > 0 && System.nanoTime() < deadline) {
 
             List<AwareConfiguration> neighbors = x.getNeighborhood(random.nextInt(n - u));
 
             for (AwareConfiguration ac : neighbors) {
                // System.out.println(ac.getWeightConfiguration() + " L" + ac.getLeader());
-                long fitnessY = simulator.predictLatency(replicaSet, ac.getLeader(), ac.getWeightConfiguration(), propose,
-                        write, n, f, delta, 10);
+                long fitnessY = predictLatencyUnboxed(replicaSet, ac.getLeader(), ac.getWeightConfiguration(),
+                        propose, write, n, f, delta, 10);
 
                 if (!tabuList.contains(ac) && fitnessY < best.getPredictedLatency()) {
                     x = ac;
@@ -376,21 +509,155 @@ public class Simulator {
                 best = x;
             }
             tabuList.push(x);
-            if (tabuList.size() > maxTabuSize) {
+            if (tabuList.size() > MAX_TABU_SIZE) {
                 tabuList.remove(0);
             }
 
             examined = examined - neighbors.size();
+            chain.examined += neighbors.size();
         }
 
-        long t2 = System.nanoTime();
-        double time = ((double) (t2 - t1)) / 1000000.00; // in ms
-        String additionalParams = "maxTabuSize: " + maxTabuSize;
-        printStrategyInfo("Tabu Search", initExamined, best, time, additionalParams);
+        chain.best = best;
+        return chain;
+    }
+
 
-        return simulator.new SimulationRun(time, best.getPredictedLatency(), best);
+    /**
+     * Runs several independent chains of simulated annealing and returns the best configuration found by any of
+     * them. The first chain starts from the same configuration and seed as
+     * {@link #simulatedAnnealing(int, int, int, int, int[], long[][], long[][], long)}, all other chains start from
+     * random configurations. The seeds of the chains are derived from the given seed, and ties between chains are
+     * broken by the chain index, thus the result does not depend on the thread scheduling.
+     *
+     * @param seed        seed, e.g., the consensus id, must be the same in all replicas
+     * @param chains      number of chains
+     * @param evaluations number of configurations every chain examines, the cooling rate is chosen accordingly; the
+     *                    default schedule is used if not positive
+     * @param timeBudget  wall-clock budget in ns after which all chains stop, unbounded if not positive. Note that a
+     *                    wall-clock budget makes the result depend on the speed of the replica.
+     * @param pool        thread pool the chains run on, chains run sequentially if null
+     * @return the best configuration
+     */
+    public static SimulationRun multiStartSimulatedAnnealing(int n, int f, int delta, int u, int[] replicaSet,
+                                                             long[][] propose, long[][] write, long seed, int chains,
+                                                             int evaluations, long timeBudget, ExecutorService pool) {
+        long t1 = System.nanoTime();
+        long deadline = timeBudget > 0 ? t1 + timeBudget : Long.MAX_VALUE;
+        double coolingRate = evaluations > 0 ? 1.00 - Math.pow(THRESHOLD / TEMPERATURE, 1.00 / evaluations)
+                : COOLING_RATE;
 
+        Simulator simulator = new Simulator(null);
+        long[] seeds = chainSeeds(seed, chains);
+
+        List<Callable<Chain>> tasks = new ArrayList<>();
+        for (int k = 0; k < seeds.length; k++) {
+            final int chain = k;
+            tasks.add(() -> {
+                Random random = new Random(seeds[chain]);
+                AwareConfiguration start = chain == 0 ? new AwareConfiguration(new WeightConfiguration(u, replicaSet), 0)
+                        : randomConfiguration(u, replicaSet, random);
+                return simulator.annealingChain(n, f, delta, u, replicaSet, propose, write, start, random,
+                        coolingRate, deadline);
+            });
+        }
 
+        return simulator.bestOfChains("Multi-Start Simulated Annealing", tasks, pool, t1,
+                "chains: " + seeds.length + " coolingRate: " + coolingRate);
+    }
+
+    /**
+     * Runs several independent tabu searches and returns the best configuration found by any of them, see
+     * {@link #multiStartSimulatedAnnealing}
+     *
+     * @param seed        seed, e.g., the consensus id, must be the same in all replicas
+     * @param chains      number of searches
+     * @param evaluations number of configurations every search examines; if not positive, as many as a chain of
+     *                    simulated annealing examines with the default schedule
+     * @param timeBudget  wall-clock budget in ns after which all searches stop, unbounded if not positive
+     * @param pool        thread pool the searches run on, searches run sequentially if null
+     * @return the best configuration
+     */
+    public static SimulationRun multiStartTabuSearch(int n, int f, int delta, int u, int[] replicaSet,
+                                                     long[][] propose, long[][] write, long seed, int chains,
+                                                     int evaluations, long timeBudget, ExecutorService pool) {
+        long t1 = System.nanoTime();
+        long deadline = timeBudget > 0 ? t1 + timeBudget : Long.MAX_VALUE;
+        int examined = evaluations > 0 ? evaluations
+                : (int) Math.ceil(Math.log(THRESHOLD / TEMPERATURE) / Math.log(1.00 - COOLING_RATE));
+
+        Simulator simulator = new Simulator(null);
+        long[] seeds = chainSeeds(seed, chains);
+
+        List<Callable<Chain>> tasks = new ArrayList<>();
+        for (int k = 0; k < seeds.length; k++) {
+            final int chain = k;
+            tasks.add(() -> {
+                Random random = new Random(seeds[chain]);
+                AwareConfiguration start = chain == 0 ? new AwareConfiguration(new WeightConfiguration(u, replicaSet), 0)
+                        : randomConfiguration(u, replicaSet, random);
+                return simulator.tabuChain(n, f, delta, u, replicaSet, propose, write, start, random, examined,
+                        deadline);
+            });
+        }
+
+        return simulator.bestOfChains("Multi-Start Tabu Search", tasks, pool, t1,
+                "chains: " + seeds.length + " maxTabuSize: " + MAX_TABU_SIZE);
+    }
+
+    private static long[] chainSeeds(long seed, int chains) {
+        long[] seeds = new long[Math.max(chains, 1)];
+        Random random = new Random(seed);
+        seeds[0] = seed;
+        for (int k = 1; k < seeds.length; k++) {
+            seeds[k] = random.nextLong();
+        }
+        return seeds;
+    }
+
+    private static AwareConfiguration randomConfiguration(int u, int[] replicaSet, Random random) {
+        List<Integer> replicas = new ArrayList<>();
+        for (int i : replicaSet) {
+            replicas.add(i);
+        }
+        Collections.shuffle(replicas, random);
+
+        TreeSet<Integer> R_max = new TreeSet<>(replicas.subList(0, u));
+        TreeSet<Integer> R_min = new TreeSet<>(replicas.subList(u, replicas.size()));
+        return new AwareConfiguration(new WeightConfiguration(R_max, R_min), replicas.get(0));
+    }
+
+    private SimulationRun bestOfChains(String strategyName, List<Callable<Chain>> tasks, ExecutorService pool,
+                                       long t1, String additionalParameters) {
+        List<Chain> results = new ArrayList<>();
+        try {
+            if (pool != null) {
+                for (Future<Chain> result : pool.invokeAll(tasks)) {
+                    results.add(result.get());
+                }
+            } else {
+                for (Callable<Chain> task : tasks) {
+                    results.add(task.call());
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Heuristic search failed", e);
+        }
+
+        // Strict comparison keeps the chain with the lowest index among equally good ones
+        Chain best = results.get(0);
+        int examined = 0;
+        for (Chain chain : results) {
+            examined += chain.examined;
+            if (chain.best.getPredictedLatency() < best.best.getPredictedLatency()) {
+                best = chain;
+            }
+        }
+
+        long t2 = System.nanoTime();
+        double time = ((double) (t2 - t1)) / 1000000.00; // in ms
+        printStrategyInfo(strategyName, examined, best.best, time, additionalParameters);
+
+        return new SimulationRun(time, best.best.getPredictedLatency(), best.best);
     }
 
 
@@ -414,7 +681,7 @@ public class Simulator {
             if (sample == -1 || count % skip == 0) {
                 for (int primary : w.getR_max()) { // Only replicas in R_max will be considered to become leader ?
                     examined++;
-                    Long prediction = simulator.predictLatency(replicaSet, primary, w, propose, write, n, f, delta, 10);
+                    long prediction = simulator.predictLatencyUnboxed(replicaSet, primary, w, propose, write, n, f, delta, 10);
 
                     if (prediction < bestLatency) {
                         bestLatency = prediction;
@@ -485,6 +752,17 @@ public class Simulator {
         }
     }
 
+    /**
+     * Result of a single chain of a heuristic search
+     */
+    private static class Chain {
+
+        AwareConfiguration best;
+        int examined = 0;
+        int jumps = 0;
+        int betterFound = 0;
+    }
+
     public class SimulationRun implements Comparable {
 
         double timeNeeded;
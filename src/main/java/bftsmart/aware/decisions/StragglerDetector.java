@@ -0,0 +1,176 @@
+package bftsmart.aware.decisions;
+
+import bftsmart.aware.monitoring.Monitor;
+
+import java.util.Arrays;
+
+/**
+ * Detects replicas that slowed down since the last optimization, so that they can be demoted before the next
+ * calculation interval.
+ *
+ * The slowdown of a replica is the median, over its links, of the ratio between the latency measured now and the
+ * latency measured at the last optimization (the baseline). Using the median, a single degraded link does not make a
+ * replica a straggler, but a slow or overloaded site does. Only rows delivered since the baseline are compared, and a
+ * missing latency in the row of a replica carries no information: a replica that did not deliver new measurements,
+ * e.g., because it is recovering, does not slow down by itself.
+ *
+ * A replica that goes silent does not deliver measurements either. It is detected by the others instead: it has an
+ * infinite slowdown if more than half of the rows delivered by other replicas since the baseline report the links to
+ * it as missing, although they were measured at the baseline. Rows without any measured link, e.g., of a replica that
+ * just restarted, are not taken into account.
+ *
+ * The detector only looks at latencies that have been disseminated with total order, and its baseline is part of the
+ * state transferred to recovering replicas, hence all correct replicas that have processed or recovered the same
+ * consensus instances detect the same stragglers.
+ *
+ * @author cb
+ */
+public class StragglerDetector {
+
+    private final double threshold;
+
+    // Sanitized WRITE latencies at the last optimization
+    private long[][] baseline;
+
+    // Sequence numbers of the measurements of every replica at the last optimization
+    private int[] baselineSeqs;
+
+    /**
+     * Creates a detector
+     *
+     * @param threshold slowdown above which a replica is a straggler, e.g., 2.0 if its latencies doubled
+     */
+    public StragglerDetector(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Searches the watched replicas for a straggler. The first call only records the baseline.
+     *
+     * @param write   sanitized WRITE latencies
+     * @param seqs    sequence numbers of the measurements the rows of write come from, 0 if there are none
+     * @param watched replicas whose slowdown hurts the consensus latency, e.g., R_max and the leader
+     * @return the watched replica with the largest slowdown above the threshold, or -1 if there is none
+     */
+    public int findStraggler(long[][] write, int[] seqs, int[] watched) {
+        if (baseline == null) {
+            rebase(write, seqs);
+            return -1;
+        }
+        int straggler = -1;
+        double largest = threshold;
+        for (int r : watched) {
+            double slowdown = slowdown(write, seqs, r);
+            if (slowdown > largest) {
+                largest = slowdown;
+                straggler = r;
+            }
+        }
+        return straggler;
+    }
+
+    /**
+     * Computes the slowdown of a replica relative to the baseline
+     *
+     * @param write sanitized WRITE latencies
+     * @param seqs  sequence numbers of the measurements the rows of write come from, 0 if there are none
+     * @param r     replica
+     * @return infinity if r went silent, otherwise the median ratio between the current and the baseline latencies of
+     * the links of r, 1 if none has been delivered since the baseline
+     */
+    public double slowdown(long[][] write, int[] seqs, int r) {
+        int n = Math.min(Math.min(write.length, baseline.length), Math.min(seqs.length, baselineSeqs.length));
+        if (r < 0 || r >= n) {
+            return 1.00;
+        }
+        if (isSilent(write, seqs, r, n)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (seqs[r] <= baselineSeqs[r]) {
+            return 1.00; // no measurements of r delivered since the baseline
+        }
+        double[] ratios = new double[n];
+        int links = 0;
+        for (int j = 0; j < n; j++) {
+            long before = baseline[r][j];
+            long now = write[r][j];
+            if (j == r || before <= 0 || before == Monitor.MISSING_VALUE || now == Monitor.MISSING_VALUE) {
+                continue;
+            }
+            ratios[links++] = (double) now / before;
+        }
+        if (links == 0) {
+            return 1.00;
+        }
+        Arrays.sort(ratios, 0, links);
+        return ratios[links / 2];
+    }
+
+    /**
+     * Checks whether the other replicas report a replica as silent in the rows they delivered since the baseline
+     */
+    private boolean isSilent(long[][] write, int[] seqs, int r, int n) {
+        int links = 0;
+        int silent = 0;
+        for (int i = 0; i < n; i++) {
+            long before = baseline[i][r];
+            if (i == r || seqs[i] <= baselineSeqs[i] || before <= 0 || before == Monitor.MISSING_VALUE
+                    || !measuresOthers(write[i], i, r)) {
+                continue;
+            }
+            links++;
+            if (write[i][r] == Monitor.MISSING_VALUE) {
+                silent++;
+            }
+        }
+        return links > 0 && 2 * silent > links;
+    }
+
+    private static boolean measuresOthers(long[] row, int i, int r) {
+        for (int j = 0; j < row.length; j++) {
+            if (j != i && j != r && row[j] != Monitor.MISSING_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Uses the given latencies as baseline, called whenever the configuration has been optimized
+     *
+     * @param write sanitized WRITE latencies
+     * @param seqs  sequence numbers of the measurements the rows of write come from, 0 if there are none
+     */
+    public void rebase(long[][] write, int[] seqs) {
+        baseline = new long[write.length][];
+        for (int i = 0; i < write.length; i++) {
+            baseline[i] = write[i].clone();
+        }
+        baselineSeqs = seqs.clone();
+    }
+
+    /**
+     * @return WRITE latencies at the last optimization, or null if there is no baseline yet
+     */
+    public long[][] getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * @return sequence numbers of the measurements at the last optimization, or null if there is no baseline yet
+     */
+    public int[] getBaselineSeqs() {
+        return baselineSeqs;
+    }
+
+    /**
+     * Restores the baseline, e.g., the one of the other replicas after a state transfer
+     *
+     * @param baseline WRITE latencies at the last optimization, or null
+     * @param seqs     sequence numbers of the measurements at the last optimization
+     */
+    public void setBaseline(long[][] baseline, int[] seqs) {
+        this.baseline = baseline;
+        this.baselineSeqs = baseline != null ? seqs : null;
+    }
+}
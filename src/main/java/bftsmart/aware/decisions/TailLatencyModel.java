@@ -0,0 +1,155 @@
+package bftsmart.aware.decisions;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Predicts tail latencies (e.g., the 99th percentile) of the SMR system with a Monte-Carlo simulation.
+ *
+ * Instead of a single median per link, every link is described by a few quantiles of its measured latency
+ * distribution. The model draws a number of latency matrices from these distributions (inverse transform sampling,
+ * interpolating linearly between the quantiles) and simulates one consensus instance per drawn matrix. The predicted
+ * latency is the requested percentile of the simulated latencies.
+ *
+ * The matrices are drawn once, with a seed that is the same in all replicas, and reused for all configurations of a
+ * search. Thus predictions are deterministic and configurations are compared on the same samples (common random
+ * numbers), which keeps the sampling noise from deciding between two configurations.
+ *
+ * @author cb
+ */
+public class TailLatencyModel {
+
+    private final double percentile;
+    private final int samples;
+
+    // Drawn latency matrices, indexed by sample
+    private final long[][][] proposeSamples;
+    private final long[][][] writeSamples;
+
+    /**
+     * Creates a tail latency model and draws the latency matrices
+     *
+     * @param percentile        percentile to be predicted, in (0,100]
+     * @param samples           number of drawn latency matrices
+     * @param seed              seed for drawing the latency matrices, must be the same in all replicas
+     * @param levels            ascending quantile levels in [0,1] the distributions are described by
+     * @param proposeQuantiles  sanitized PROPOSE latency quantiles, proposeQuantiles[i][j][k] is the quantile of link
+     *                          (i,j) at levels[k]
+     * @param writeQuantiles    sanitized WRITE/ACCEPT latency quantiles
+     * @param n                 system size
+     */
+    public TailLatencyModel(double percentile, int samples, long seed, double[] levels, long[][][] proposeQuantiles,
+                            long[][][] writeQuantiles, int n) {
+        this.percentile = Math.min(Math.max(percentile, 0.00), 100.00);
+        this.samples = Math.max(samples, 1);
+        this.proposeSamples = new long[this.samples][n][n];
+        this.writeSamples = new long[this.samples][n][n];
+
+        Random random = new Random(seed);
+        for (int s = 0; s < this.samples; s++) {
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    // Links are symmetric, both directions share a delay
+                    double u = random.nextDouble();
+                    proposeSamples[s][i][j] = proposeSamples[s][j][i] = sample(levels, proposeQuantiles[i][j], u);
+                    writeSamples[s][i][j] = writeSamples[s][j][i] = sample(levels, writeQuantiles[i][j], u);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inverse transform sampling from a distribution described by its quantiles
+     *
+     * @param levels    ascending quantile levels in [0,1]
+     * @param quantiles quantiles at the levels
+     * @param u         uniformly distributed random number in [0,1)
+     * @return latency
+     */
+    public static long sample(double[] levels, long[] quantiles, double u) {
+        if (u <= levels[0]) {
+            return quantiles[0];
+        }
+        for (int k = 1; k < levels.length; k++) {
+            if (u <= levels[k]) {
+                double position = (u - levels[k - 1]) / (levels[k] - levels[k - 1]);
+                return quantiles[k - 1] + Math.round(position * (quantiles[k] - quantiles[k - 1]));
+            }
+        }
+        return quantiles[levels.length - 1];
+    }
+
+    /**
+     * Adds the transmission times of a throughput model to the PROPOSE latencies of all drawn matrices
+     *
+     * @param model throughput model
+     */
+    public void adjustPropose(ThroughputModel model) {
+        for (int s = 0; s < samples; s++) {
+            proposeSamples[s] = model.adjustPropose(proposeSamples[s]);
+        }
+    }
+
+    /**
+     * Adds the processing delays of the replicas to all drawn matrices
+     *
+     * @param processing processing delay model
+     */
+    public void adjustProcessing(ProcessingDelayModel processing) {
+        for (int s = 0; s < samples; s++) {
+            proposeSamples[s] = processing.adjustPropose(proposeSamples[s]);
+            writeSamples[s] = processing.adjustWrite(writeSamples[s]);
+        }
+    }
+
+    /**
+     * Predicts the latency percentile of a configuration. Every drawn matrix is used to simulate one consensus
+     * instance, since a tail latency is experienced by single requests and not amortized over several instances.
+     *
+     * @param simulator    simulator used for the predictions
+     * @param replicaSet   all replicas
+     * @param leader       selected leader for protocol simulation
+     * @param weightConfig weight configuration to be simulated
+     * @param n            system size
+     * @param f            number of faults
+     * @param delta        number of additional spare replicas
+     * @return predicted latency percentile of the SMR protocol
+     */
+    public long predictLatency(Simulator simulator, int[] replicaSet, int leader, WeightConfiguration weightConfig,
+                               int n, int f, int delta) {
+        long[] latencies = new long[samples];
+        for (int s = 0; s < samples; s++) {
+            latencies[s] = simulator.predictLatencyUnboxed(replicaSet, leader, weightConfig, proposeSamples[s],
+                    writeSamples[s], n, f, delta, 1);
+        }
+        return percentile(latencies);
+    }
+
+    /**
+     * Computes the percentile of the model over a number of values (nearest rank). The order of the values is changed.
+     *
+     * @param values one value per drawn matrix
+     * @return percentile
+     */
+    public long percentile(long[] values) {
+        Arrays.sort(values);
+        int rank = (int) Math.ceil(percentile / 100.00 * values.length) - 1;
+        return values[Math.min(Math.max(rank, 0), values.length - 1)];
+    }
+
+    public long[][] getProposeSample(int s) {
+        return proposeSamples[s];
+    }
+
+    public long[][] getWriteSample(int s) {
+        return writeSamples[s];
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+}
@@ -0,0 +1,145 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Extends the latency model of the {@link Simulator} with the time needed to transmit a proposal.
+ *
+ * The simulator only models propagation delays. For large batches, the time the leader needs to push the PROPOSE
+ * through its links adds to the consensus latency, and since the leader sends the PROPOSE to every replica over its
+ * outbound link, the sum of these transmission times bounds how often it can start a new consensus instance.
+ *
+ * The model turns predicted latencies into a cost that is compared by the search (smaller is better, in ns):
+ * <ul>
+ *     <li>LATENCY: consensus latency, this model is not used</li>
+ *     <li>THROUGHPUT: cycle time of the leader, i.e., the time per batch, which is the inverse of the throughput</li>
+ *     <li>MIXED: weighted sum of latency and cycle time</li>
+ * </ul>
+ *
+ * @author cb
+ */
+public class ThroughputModel {
+
+    public enum Objective {
+        LATENCY, THROUGHPUT, MIXED
+    }
+
+    private final Objective objective;
+    private final double throughputWeight;
+
+    private final long proposalSize;
+    private final double requestsPerBatch;
+
+    // transmission[i][j]: time (ns) to transmit a proposal from replica i to replica j
+    private final long[][] transmission;
+
+    // time (ns) replica i needs to transmit a proposal to all other replicas
+    private final long[] leaderBusy;
+
+    /**
+     * Creates a throughput model
+     *
+     * @param objective        the optimization objective
+     * @param throughputWeight weight of the cycle time for the MIXED objective, in [0,1]
+     * @param bandwidth        sanitized link bandwidths in bytes per second
+     * @param proposalSize     average size of a proposal in bytes
+     * @param requestsPerBatch average number of requests per proposal
+     * @param replicaSet       all replicas
+     * @param n                system size
+     */
+    public ThroughputModel(Objective objective, double throughputWeight, long[][] bandwidth, long proposalSize,
+                           double requestsPerBatch, int[] replicaSet, int n) {
+        this.objective = objective;
+        this.throughputWeight = Math.min(Math.max(throughputWeight, 0.00), 1.00);
+        this.proposalSize = proposalSize;
+        this.requestsPerBatch = requestsPerBatch;
+        this.transmission = new long[n][n];
+        this.leaderBusy = new long[n];
+
+        for (int i : replicaSet) {
+            for (int j : replicaSet) {
+                if (i != j) {
+                    transmission[i][j] = transmissionTime(proposalSize, bandwidth[i][j]);
+                    leaderBusy[i] += transmission[i][j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the time to transmit a number of bytes over a link
+     *
+     * @param bytes     number of bytes
+     * @param bandwidth link bandwidth in bytes per second
+     * @return transmission time in ns
+     */
+    public static long transmissionTime(long bytes, long bandwidth) {
+        if (bandwidth <= 0) {
+            return 0L;
+        }
+        return (long) ((double) bytes * 1000000000.00 / (double) bandwidth);
+    }
+
+    /**
+     * Adds the transmission time of a proposal to the PROPOSE latencies. Since the simulator only reads the row of the
+     * leader, every row is adjusted with the transmission times of its replica being the leader.
+     *
+     * @param m_propose sanitized PROPOSE latencies
+     * @return PROPOSE latencies including transmission times
+     */
+    public long[][] adjustPropose(long[][] m_propose) {
+        long[][] adjusted = new long[m_propose.length][];
+        for (int i = 0; i < m_propose.length; i++) {
+            adjusted[i] = new long[m_propose[i].length];
+            for (int j = 0; j < m_propose[i].length; j++) {
+                adjusted[i][j] = m_propose[i][j] + transmission[i][j];
+            }
+        }
+        return adjusted;
+    }
+
+    /**
+     * Time between two consecutive consensus instances started by a leader
+     *
+     * @param latency predicted consensus latency, including transmission times
+     * @param leader  the leader
+     * @return cycle time in ns
+     */
+    public long cycleTime(long latency, int leader) {
+        return Math.max(latency, leaderBusy[leader]);
+    }
+
+    /**
+     * Turns a predicted latency into the cost of the configured objective
+     *
+     * @param latency predicted consensus latency, including transmission times
+     * @param leader  the leader
+     * @return cost (smaller is better)
+     */
+    public long cost(long latency, int leader) {
+        switch (objective) {
+            case THROUGHPUT:
+                return cycleTime(latency, leader);
+            case MIXED:
+                return Math.round((1.00 - throughputWeight) * latency + throughputWeight * cycleTime(latency, leader));
+            default:
+                return latency;
+        }
+    }
+
+    /**
+     * Predicted throughput for a given cycle time
+     *
+     * @param cycleTime cycle time in ns
+     * @return requests per second
+     */
+    public double throughput(long cycleTime) {
+        return cycleTime > 0 ? requestsPerBatch * 1000000000.00 / (double) cycleTime : 0.00;
+    }
+
+    public Objective getObjective() {
+        return objective;
+    }
+
+    public long getProposalSize() {
+        return proposalSize;
+    }
+}
@@ -0,0 +1,208 @@
+package bftsmart.aware.monitoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time series of the latency matrices a replica used for its optimizations, persisted so that a restarted replica
+ * does not start with empty matrices.
+ *
+ * At the end of every calculation interval, the matrices disseminated with total order are appended together with the
+ * consensus id. These matrices are the same in all correct replicas, hence a replica that recovers the state of
+ * consensus cid can reload the record of the last calculation interval before cid and continue from the same data as
+ * the other replicas, provided it was alive at that point.
+ *
+ * Every record is length-prefixed and contains the consensus id, the system size and both matrices as zig-zag varints
+ * in microseconds (see Measurements). A record that has been cut off by a crash is ignored. The file is compacted to
+ * its last record once it holds MAX_RECORDS records.
+ *
+ * @author cb
+ */
+public class LatencyHistory {
+
+    private static final int MAX_RECORDS = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final File file;
+    private int records = -1; // unknown until the file is read or written
+
+    /**
+     * A record of the history
+     */
+    public static class Record {
+
+        public final int cid;
+        public final Long[][] propose;
+        public final Long[][] write;
+
+        public Record(int cid, Long[][] propose, Long[][] write) {
+            this.cid = cid;
+            this.propose = propose;
+            this.write = write;
+        }
+    }
+
+    /**
+     * Opens the history of a replica
+     *
+     * @param directory directory of the history files, created if it does not exist
+     * @param id        replica id
+     */
+    public LatencyHistory(String directory, int id) {
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            logger.warn("Could not create latency history directory " + directory);
+        }
+        this.file = new File(dir, "latencies-" + id + ".bin");
+    }
+
+    /**
+     * Appends the matrices used at a consensus instance
+     *
+     * @param cid     consensus id
+     * @param propose PROPOSE latencies disseminated with total order
+     * @param write   WRITE latencies disseminated with total order
+     * @return the record as it will be loaded, with latencies rounded to microseconds
+     */
+    public synchronized Record append(int cid, Long[][] propose, Long[][] write) {
+        byte[] record = encode(new Record(cid, propose, write));
+        Record stored = decode(record);
+        try {
+            if (records < 0) {
+                records = truncate();
+            }
+            if (records >= MAX_RECORDS) {
+                compact(record);
+                return stored;
+            }
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            records++;
+        } catch (IOException e) {
+            logger.warn("Could not append to latency history " + file, e);
+        }
+        return stored;
+    }
+
+    /**
+     * Loads the newest record at or before a consensus instance
+     *
+     * @param cid consensus id
+     * @return the last record with a consensus id of at most cid, or null if there is none
+     */
+    public synchronized Record load(int cid) {
+        Record newest = null;
+        for (Record record : read()) {
+            if (record.cid <= cid) {
+                newest = record;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Removes a record that has been cut off by a crash, so that records appended later can be read
+     *
+     * @return number of records in the file
+     */
+    private int truncate() throws IOException {
+        List<Record> list = new ArrayList<>();
+        long valid = read(list);
+        if (file.exists() && file.length() > valid) {
+            logger.info("Removing " + (file.length() - valid) + " bytes cut off from latency history " + file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        return list.size();
+    }
+
+    private Record[] read() {
+        List<Record> list = new ArrayList<>();
+        read(list);
+        return list.toArray(new Record[0]);
+    }
+
+    /**
+     * Reads all complete records
+     *
+     * @param list list to which the records are added
+     * @return length of the file up to the end of the last complete record
+     */
+    private long read(List<Record> list) {
+        long valid = 0;
+        if (!file.exists()) {
+            return valid;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (in.available() >= Integer.BYTES) {
+                int length = in.readInt();
+                if (length <= 0 || length > in.available()) {
+                    break; // cut off
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                Record record = decode(bytes);
+                if (record == null) {
+                    break; // malformed
+                }
+                list.add(record);
+                valid += Integer.BYTES + length;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read latency history " + file, e);
+        }
+        return valid;
+    }
+
+    private void compact(byte[] last) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeInt(last.length);
+            out.write(last);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        records = 1;
+    }
+
+    static byte[] encode(Record record) {
+        int n = record.write.length;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8 + 6 * n * n);
+        Measurements.writeVarint(baos, record.cid);
+        Measurements.writeVarint(baos, n);
+        for (Long[] row : record.propose)
+            Measurements.writeLatencies(baos, row, null);
+        for (Long[] row : record.write)
+            Measurements.writeLatencies(baos, row, null);
+        return baos.toByteArray();
+    }
+
+    static Record decode(byte[] bytes) {
+        int[] position = {0};
+        try {
+            int cid = (int) Measurements.readVarint(bytes, position);
+            int n = (int) Measurements.readVarint(bytes, position);
+            if (n <= 0 || n > bytes.length) {
+                return null;
+            }
+            Long[][] propose = new Long[n][];
+            Long[][] write = new Long[n][];
+            for (int i = 0; i < n; i++)
+                propose[i] = Measurements.readLatencies(bytes, position, n, null);
+            for (int i = 0; i < n; i++)
+                write[i] = Measurements.readLatencies(bytes, position, n, null);
+            return new Record(cid, propose, write);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+}
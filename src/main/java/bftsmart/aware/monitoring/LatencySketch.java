@@ -0,0 +1,162 @@
+package bftsmart.aware.monitoring;
+
+/**
+ * Streaming quantile sketch of the latencies of a single link.
+ *
+ * Latencies are counted in buckets whose bounds grow geometrically, so that every quantile is reported with a
+ * bounded relative error (the bucket of a latency l covers (gamma^(i-1), gamma^i] with gamma = (1+a)/(1-a) for a
+ * relative accuracy a). Updates and queries do not depend on the number of recorded latencies: an update increments
+ * one bucket, a query scans the fixed number of buckets.
+ *
+ * Old measurements fade out with exponential decay: a latency recorded dt nanoseconds ago weighs exp(-dt/horizon).
+ * The decay is implemented as forward decay, new latencies are counted with growing weights relative to a landmark
+ * time, and all counts are rescaled once the weights grow too large. Sketches with the same accuracy and horizon can
+ * be merged.
+ *
+ * A link without measurements for SILENCE horizons is reported as silent. The decayed weight alone is not a good
+ * indicator, hundreds of measurements of a crashed replica take many horizons to fade out.
+ *
+ * @author cb
+ */
+public class LatencySketch {
+
+    // Latencies below are counted in the first bucket
+    private static final double MIN_LATENCY = 1000.00; // 1 microsecond
+
+    // Latencies above are counted in the last bucket
+    private static final double MAX_LATENCY = 100000000000.00; // 100 seconds
+
+    // Weights are rescaled when the forward decay exponent exceeds this value
+    private static final double MAX_EXPONENT = 100.00;
+
+    // The link is considered silent if it has not been measured for this number of horizons
+    private static final double SILENCE = 2.00;
+
+    private final double logGamma;
+    private final double horizon;
+    private final double[] counts;
+
+    private long landmark;
+    private double total = 0.00;
+    private long lastSample; // time of the last measurement, only meaningful if total > 0
+
+    /**
+     * Creates an empty sketch
+     *
+     * @param accuracy relative accuracy of the reported quantiles, e.g., 0.01
+     * @param horizon  time constant (ns) of the exponential decay of old measurements
+     * @param now      current time (System.nanoTime())
+     */
+    public LatencySketch(double accuracy, long horizon, long now) {
+        this.logGamma = Math.log((1.00 + accuracy) / (1.00 - accuracy));
+        this.horizon = Math.max(horizon, 1L);
+        this.counts = new double[index(MAX_LATENCY) + 1];
+        this.landmark = now;
+        this.lastSample = now;
+    }
+
+    private int index(double latency) {
+        return latency <= MIN_LATENCY ? 0 : (int) Math.ceil(Math.log(latency / MIN_LATENCY) / logGamma);
+    }
+
+    private int bucket(double latency) {
+        return Math.min(index(latency), counts.length - 1);
+    }
+
+    private long value(int bucket) {
+        if (bucket == 0) {
+            return (long) MIN_LATENCY;
+        }
+        // Center of the bucket with respect to the relative error
+        double upper = MIN_LATENCY * Math.exp(bucket * logGamma);
+        double lower = MIN_LATENCY * Math.exp((bucket - 1) * logGamma);
+        return Math.round(2.00 * lower * upper / (lower + upper));
+    }
+
+    /**
+     * Records a measured latency
+     *
+     * @param latency latency in ns
+     * @param now     time of the measurement (System.nanoTime())
+     */
+    public synchronized void add(long latency, long now) {
+        double exponent = (double) (now - landmark) / horizon;
+        if (exponent > MAX_EXPONENT) {
+            rescale(now);
+            exponent = 0.00;
+        }
+        double weight = Math.exp(exponent);
+        counts[bucket(latency)] += weight;
+        total += weight;
+        lastSample = Math.max(lastSample, now);
+    }
+
+    /**
+     * Gets a quantile of the recorded latencies
+     *
+     * @param level quantile level in [0,1], e.g., 0.5 for the median
+     * @param now   current time (System.nanoTime())
+     * @return quantile in ns, or Monitor.MISSING_VALUE if no latencies have been recorded in the last SILENCE
+     * horizons
+     */
+    public synchronized long quantile(double level, long now) {
+        if (total <= 0.00 || now - lastSample > SILENCE * horizon) {
+            return Monitor.MISSING_VALUE;
+        }
+        double rank = level * total;
+        double cumulative = 0.00;
+        int last = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                cumulative += counts[i];
+                last = i;
+                if (cumulative > rank) {
+                    return value(i);
+                }
+            }
+        }
+        return value(last);
+    }
+
+    /**
+     * Adds the latencies recorded by another sketch with the same accuracy and horizon
+     *
+     * @param other sketch
+     */
+    public void merge(LatencySketch other) {
+        double[] otherCounts;
+        long otherLandmark;
+        long otherLastSample;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherLandmark = other.landmark;
+            otherLastSample = other.total > 0.00 ? other.lastSample : Long.MIN_VALUE;
+        }
+        synchronized (this) {
+            if (otherLastSample != Long.MIN_VALUE) {
+                lastSample = total > 0.00 ? Math.max(lastSample, otherLastSample) : otherLastSample;
+            }
+            if (otherLandmark > landmark) {
+                rescale(otherLandmark);
+            }
+            double scale = Math.exp((double) (otherLandmark - landmark) / horizon);
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += otherCounts[i] * scale;
+                total += otherCounts[i] * scale;
+            }
+        }
+    }
+
+    /**
+     * Moves the landmark of the forward decay to now
+     */
+    private void rescale(long now) {
+        double scale = Math.exp(-(double) (now - landmark) / horizon);
+        total = 0.00;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] *= scale;
+            total += counts[i];
+        }
+        landmark = now;
+    }
+}
@@ -5,12 +5,39 @@ import java.io.*;
 /**
  * Measurements that represent latency vectors Li = <l0, l1, .. ln-1> that replicas will invoke with total order
  * then use for optimizations...
+ *
+ * Two wire formats exist. The legacy format starts with the system size as int, hence with a zero byte. The compact
+ * format starts with a non-zero version byte, quantizes latencies to microseconds and writes them as zig-zag varints,
+ * relative to the last measurements of the same sender that have been delivered with total order (the base). The
+ * base is identified by its sequence number; since all replicas deliver the same measurements in the same order, they
+ * all decode a message against the same base, or all reject it if the base the sender used has been superseded. The
+ * bases and their sequence numbers are not derived from the ordered messages alone, a replica that recovers a state
+ * receives them with it (see Monitor.getState()).
  */
 public class Measurements {
 
+    // Optional sections appended after the latency vectors, each one starts with its tag
+    private static final byte BANDWIDTHS = 1;
+    private static final byte DISTRIBUTIONS = 2;
+    private static final byte PROCESSING = 3;
+
+    // First byte of the compact format
+    private static final byte VERSION_COMPACT = 2;
+
+    // Latencies are transmitted in microseconds in the compact format
+    private static final long QUANTUM = 1000L;
+
     public int n; // number of replicas
     public Long[] writeLatencies;
     public Long[] proposeLatencies;
+    public Long[] bandwidths; // optional, link bandwidth estimates in bytes per second
+    public Long[][] writeQuantiles; // optional, writeQuantiles[i][k] is the quantile of link i at Monitor.QUANTILE_LEVELS[k]
+    public Long[][] proposeQuantiles; // optional
+    public Long[] processingDelays; // optional, time from receiving a PROPOSE to sending the WRITE, and from a WRITE
+                                    // quorum to sending the ACCEPT, in ns
+
+    // Number of measurements of the same sender delivered so far including these, assigned by the receiver
+    public int seq = 0;
 
     public Measurements() { }
 
@@ -26,6 +53,11 @@ public class Measurements {
         }
     }
 
+    public Measurements(int n, Long[] writeLatencies, Long[] proposeLatencies, Long[] bandwidths) {
+        this(n, writeLatencies, proposeLatencies);
+        this.bandwidths = bandwidths;
+    }
+
     public  byte[] toBytes() {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -40,6 +72,31 @@ public class Measurements {
                     dos.writeLong(l);
             }
 
+            // Optional sections are appended, so that readers which do not expect them still decode the latencies
+            if (bandwidths != null) {
+                dos.writeByte(BANDWIDTHS);
+                for (Long l : bandwidths)
+                    dos.writeLong(l);
+            }
+
+            if (writeQuantiles != null && proposeQuantiles != null) {
+                dos.writeByte(DISTRIBUTIONS);
+                dos.writeInt(writeQuantiles[0].length);
+                for (Long[] q : writeQuantiles)
+                    for (Long l : q)
+                        dos.writeLong(l);
+                for (Long[] q : proposeQuantiles)
+                    for (Long l : q)
+                        dos.writeLong(l);
+            }
+
+            if (processingDelays != null) {
+                dos.writeByte(PROCESSING);
+                dos.writeInt(processingDelays.length);
+                for (Long l : processingDelays)
+                    dos.writeLong(l);
+            }
+
             dos.close();
         } catch (IOException e) {
             System.out.println("!!!!!!!!!!!!!!! Something went wrong " + e.getStackTrace());
@@ -52,11 +109,18 @@ public class Measurements {
         int n = 0;
         Long[] writeLatencies = new Long[0];
         Long[] proposeLatencies = new Long[0];
+        Long[] bandwidths = null;
+        Long[][] writeQuantiles = null;
+        Long[][] proposeQuantiles = null;
+        Long[] processingDelays = null;
 
         try {
             ByteArrayInputStream bis = new ByteArrayInputStream(measurements);
             DataInputStream dis = new DataInputStream(bis);
             n = dis.readInt();
+            if (n < 0 || n > dis.available() / Long.BYTES) {
+                throw new IOException("Invalid system size " + n);
+            }
             writeLatencies = new Long[n];
             proposeLatencies = new Long[n];
 
@@ -66,13 +130,274 @@ public class Measurements {
             for (int i = 0; i < n; i++)
                 proposeLatencies[i] = dis.readLong();
 
+            while (dis.available() > 0) {
+                byte section = dis.readByte();
+                if (section == BANDWIDTHS) {
+                    bandwidths = new Long[n];
+                    for (int i = 0; i < n; i++)
+                        bandwidths[i] = dis.readLong();
+                } else if (section == DISTRIBUTIONS) {
+                    int k = dis.readInt();
+                    if (k < 0 || k > dis.available() / Long.BYTES) {
+                        break; // malformed
+                    }
+                    writeQuantiles = new Long[n][k];
+                    proposeQuantiles = new Long[n][k];
+                    for (int i = 0; i < n; i++)
+                        for (int j = 0; j < k; j++)
+                            writeQuantiles[i][j] = dis.readLong();
+                    for (int i = 0; i < n; i++)
+                        for (int j = 0; j < k; j++)
+                            proposeQuantiles[i][j] = dis.readLong();
+                } else if (section == PROCESSING) {
+                    int k = dis.readInt();
+                    if (k < 0 || k > dis.available() / Long.BYTES) {
+                        break; // malformed
+                    }
+                    processingDelays = new Long[k];
+                    for (int i = 0; i < k; i++)
+                        processingDelays[i] = dis.readLong();
+                } else {
+                    break; // unknown section
+                }
+            }
+
             dis.close();
         } catch (IOException e) {
             System.out.println("!!!!!!!!!!!!!!! Something went wrong " + e.getStackTrace());
         }
 
-        return new Measurements(n, writeLatencies, proposeLatencies);
+        Measurements li = new Measurements(n, writeLatencies, proposeLatencies, bandwidths);
+        li.writeQuantiles = writeQuantiles;
+        li.proposeQuantiles = proposeQuantiles;
+        li.processingDelays = processingDelays;
+        return li;
+    }
+
+    /**
+     * Writes the measurements and their sequence number, as part of the state transferred to a recovering replica
+     *
+     * @param out output
+     * @throws IOException if the output fails
+     */
+    public void write(DataOutputStream out) throws IOException {
+        byte[] bytes = toBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt(seq);
+    }
+
+    /**
+     * Reads measurements written by write()
+     *
+     * @param in input
+     * @return measurements with their sequence number
+     * @throws IOException if the input is malformed
+     */
+    public static Measurements read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        Measurements li = fromBytes(bytes);
+        li.seq = in.readInt();
+        return li;
+    }
+
+    /**
+     * Checks that all latencies for a system of n replicas are present. A vector that has been cut off or belongs to
+     * another system size must not be used, decoding does not fail for it.
+     *
+     * @param n system size
+     * @return true if the vectors and the optional sections that are present have the right lengths
+     */
+    public boolean isComplete(int n) {
+        if (this.n != n || !isComplete(writeLatencies, n) || !isComplete(proposeLatencies, n)
+                || (bandwidths != null && !isComplete(bandwidths, n))
+                || (processingDelays != null && !isComplete(processingDelays, processingDelays.length))) {
+            return false;
+        }
+        if (writeQuantiles == null || proposeQuantiles == null) {
+            return true;
+        }
+        if (writeQuantiles.length != n || proposeQuantiles.length != n) {
+            return false;
+        }
+        int k = n > 0 && writeQuantiles[0] != null ? writeQuantiles[0].length : 0;
+        for (int i = 0; i < n; i++) {
+            if (!isComplete(writeQuantiles[i], k) || !isComplete(proposeQuantiles[i], k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isComplete(Long[] values, int length) {
+        if (values == null || values.length != length) {
+            return false;
+        }
+        for (Long l : values) {
+            if (l == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the measurements in the compact format
+     *
+     * @param base last measurements of this replica that have been delivered with total order, null if there are none
+     * @return encoded measurements
+     */
+    public byte[] toCompactBytes(Measurements base) {
+        boolean delta = base != null && base.n == n;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(16 + 4 * n);
+        baos.write(VERSION_COMPACT);
+        writeVarint(baos, n);
+        writeVarint(baos, delta ? base.seq : 0);
+
+        writeLatencies(baos, writeLatencies, delta ? base.writeLatencies : null);
+        writeLatencies(baos, proposeLatencies, delta ? base.proposeLatencies : null);
+
+        if (bandwidths != null) {
+            baos.write(BANDWIDTHS);
+            for (Long l : bandwidths)
+                writeVarint(baos, zigZag(l));
+        }
+
+        if (writeQuantiles != null && proposeQuantiles != null) {
+            int k = writeQuantiles[0].length;
+            boolean quantileDelta = delta && base.writeQuantiles != null && base.writeQuantiles[0].length == k;
+            baos.write(DISTRIBUTIONS);
+            writeVarint(baos, k);
+            for (int i = 0; i < n; i++)
+                writeLatencies(baos, writeQuantiles[i], quantileDelta ? base.writeQuantiles[i] : null);
+            for (int i = 0; i < n; i++)
+                writeLatencies(baos, proposeQuantiles[i], quantileDelta ? base.proposeQuantiles[i] : null);
+        }
+
+        if (processingDelays != null) {
+            baos.write(PROCESSING);
+            writeVarint(baos, processingDelays.length);
+            writeLatencies(baos, processingDelays, null);
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decodes measurements in either format
+     *
+     * @param measurements encoded measurements
+     * @param base         last measurements of the same sender that have been delivered with total order, or null
+     * @return the measurements, or null if they are encoded relative to a base other than the given one
+     */
+    public static Measurements fromBytes(byte[] measurements, Measurements base) {
+        if (measurements.length == 0 || measurements[0] != VERSION_COMPACT) {
+            return fromBytes(measurements);
+        }
+
+        int[] position = {1};
+        try {
+            int n = (int) readVarint(measurements, position);
+            int baseSeq = (int) readVarint(measurements, position);
+            if (n <= 0 || n > measurements.length) {
+                return null; // malformed
+            }
+            boolean delta = baseSeq > 0;
+            if (delta && (base == null || base.seq != baseSeq || base.n != n)) {
+                return null;
+            }
+
+            Long[] writeLatencies = readLatencies(measurements, position, n, delta ? base.writeLatencies : null);
+            Long[] proposeLatencies = readLatencies(measurements, position, n, delta ? base.proposeLatencies : null);
+            Measurements li = new Measurements(n, writeLatencies, proposeLatencies);
+
+            while (position[0] < measurements.length) {
+                byte section = measurements[position[0]++];
+                if (section == BANDWIDTHS) {
+                    li.bandwidths = new Long[n];
+                    for (int i = 0; i < n; i++)
+                        li.bandwidths[i] = unZigZag(readVarint(measurements, position));
+                } else if (section == DISTRIBUTIONS) {
+                    int k = (int) readVarint(measurements, position);
+                    if (k <= 0 || k > measurements.length) {
+                        return null; // malformed
+                    }
+                    boolean quantileDelta = delta && base.writeQuantiles != null && base.writeQuantiles[0].length == k;
+                    li.writeQuantiles = new Long[n][];
+                    li.proposeQuantiles = new Long[n][];
+                    for (int i = 0; i < n; i++)
+                        li.writeQuantiles[i] = readLatencies(measurements, position, k,
+                                quantileDelta ? base.writeQuantiles[i] : null);
+                    for (int i = 0; i < n; i++)
+                        li.proposeQuantiles[i] = readLatencies(measurements, position, k,
+                                quantileDelta ? base.proposeQuantiles[i] : null);
+                } else if (section == PROCESSING) {
+                    int k = (int) readVarint(measurements, position);
+                    if (k <= 0 || k > measurements.length) {
+                        return null; // malformed
+                    }
+                    li.processingDelays = readLatencies(measurements, position, k, null);
+                } else {
+                    break; // unknown section
+                }
+            }
+            return li;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null; // malformed
+        }
+    }
+
+    static void writeLatencies(ByteArrayOutputStream out, Long[] latencies, Long[] base) {
+        for (int i = 0; i < latencies.length; i++) {
+            long value = quantize(latencies[i]);
+            writeVarint(out, zigZag(base != null ? value - quantize(base[i]) : value));
+        }
+    }
+
+    static Long[] readLatencies(byte[] in, int[] position, int length, Long[] base) {
+        Long[] latencies = new Long[length];
+        for (int i = 0; i < length; i++) {
+            long value = unZigZag(readVarint(in, position));
+            latencies[i] = (base != null ? value + quantize(base[i]) : value) * QUANTUM;
+        }
+        return latencies;
     }
 
+    static long quantize(long latency) {
+        return Math.floorDiv(latency + QUANTUM / 2, QUANTUM);
+    }
 
-}
\ No newline at end of file
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(byte[] in, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ArrayIndexOutOfBoundsException("varint too long");
+    }
+}
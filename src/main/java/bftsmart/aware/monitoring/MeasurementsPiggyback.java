@@ -0,0 +1,242 @@
+package bftsmart.aware.monitoring;
+
+import bftsmart.consensus.messages.ConsensusMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Disseminates measurements with total order without a client proxy.
+ *
+ * A replica attaches its signed measurements to the consensus messages it sends until they have been delivered. The
+ * leader collects the measurements it receives and appends them as metadata to its next proposal, so all replicas
+ * deliver them with the decision of the same consensus instance. Measurements are signed by the replica that made
+ * them, since they are forwarded by the leader; all replicas verify the signatures of a decision the same way.
+ *
+ * The signature also covers a counter that the replica increases with every publication. Measurements whose counter
+ * does not exceed the one of the last measurements delivered from the same replica are discarded, so a faulty leader
+ * cannot propose old signed measurements again to roll back the latencies of a replica.
+ *
+ * @author cb
+ */
+public class MeasurementsPiggyback {
+
+    /**
+     * Signed measurements of a replica
+     */
+    public static class Entry {
+
+        public final int sender;
+        public final long counter;
+        public final byte[] data;
+        public final byte[] signature; // signature of signedBytes(counter, data)
+
+        public Entry(int sender, long counter, byte[] data, byte[] signature) {
+            this.sender = sender;
+            this.counter = counter;
+            this.data = data;
+            this.signature = signature;
+        }
+    }
+
+    private final int me;
+
+    // Own measurements that have not been delivered yet
+    private Entry outbox;
+
+    // Leader: measurements received from the replicas since the last proposal
+    private final Entry[] received;
+
+    // Counters of the measurements delivered last from every replica, older ones do not need to be proposed again
+    private final long[] delivered;
+
+    public MeasurementsPiggyback(int me, int n) {
+        this.me = me;
+        this.received = new Entry[n];
+        this.delivered = new long[n];
+    }
+
+    /**
+     * Gets the bytes a replica signs for its measurements
+     *
+     * @param counter counter of the publication
+     * @param data    encoded measurements
+     * @return counter followed by the encoded measurements
+     */
+    public static byte[] signedBytes(long counter, byte[] data) {
+        return ByteBuffer.allocate(Long.BYTES + data.length).putLong(counter).put(data).array();
+    }
+
+    /**
+     * Gets the counter for the next publication of this replica, larger than the counters of all measurements of
+     * this replica that have been published or delivered so far
+     *
+     * @return counter
+     */
+    public synchronized long nextCounter() {
+        return Math.max(outbox != null ? outbox.counter : 0L, me < delivered.length ? delivered[me] : 0L) + 1;
+    }
+
+    /**
+     * Publishes new measurements of this replica, replacing the ones that have not been delivered yet
+     *
+     * @param counter   counter of the publication, see nextCounter()
+     * @param data      encoded measurements
+     * @param signature signature of signedBytes(counter, data)
+     */
+    public synchronized void publish(long counter, byte[] data, byte[] signature) {
+        outbox = new Entry(me, counter, data, signature);
+    }
+
+    /**
+     * Attaches the pending measurements of this replica to an outgoing consensus message
+     *
+     * @param msg consensus message
+     */
+    public synchronized void attach(ConsensusMessage msg) {
+        if (outbox != null) {
+            msg.setMeasurements(encode(outbox));
+        }
+    }
+
+    /**
+     * Stores measurements piggybacked on a consensus message, to be proposed if this replica is the leader
+     *
+     * @param sender       sender of the consensus message
+     * @param measurements piggybacked measurements
+     */
+    public synchronized void onReceive(int sender, byte[] measurements) {
+        Entry entry = decode(measurements);
+        if (entry == null || entry.sender != sender || sender < 0 || sender >= received.length) {
+            return;
+        }
+        if (entry.counter > delivered[sender]) {
+            received[sender] = entry;
+        }
+    }
+
+    /**
+     * Takes the collected measurements for a proposal, including the pending ones of this replica
+     *
+     * @return proposal metadata, or null if there are no measurements to propose
+     */
+    public synchronized byte[] drain() {
+        if (outbox != null) {
+            received[me] = outbox;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < received.length; i++) {
+            if (received[i] != null) {
+                entries.add(received[i]);
+                received[i] = null;
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeInt(entries.size());
+            for (Entry entry : entries) {
+                write(dos, entry);
+            }
+            dos.close();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Called when measurements have been delivered, so that they and older ones are neither attached nor proposed
+     * again
+     *
+     * @param sender  replica that made the measurements
+     * @param counter counter of the measurements
+     */
+    public synchronized void onDelivered(int sender, long counter) {
+        if (sender >= 0 && sender < delivered.length) {
+            delivered[sender] = Math.max(delivered[sender], counter);
+            if (received[sender] != null && received[sender].counter <= counter) {
+                received[sender] = null;
+            }
+        }
+        if (sender == me && outbox != null && outbox.counter <= counter) {
+            outbox = null;
+        }
+    }
+
+    /**
+     * Reads the measurements from proposal metadata
+     *
+     * @param metadata proposal metadata
+     * @return measurements, empty if the metadata is malformed
+     */
+    public static List<Entry> fromMetadata(byte[] metadata) {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(metadata));
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.add(read(dis));
+            }
+        } catch (IOException | RuntimeException e) {
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static byte[] encode(Entry entry) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            write(dos, entry);
+            dos.close();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Entry decode(byte[] bytes) {
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void write(DataOutputStream dos, Entry entry) throws IOException {
+        dos.writeInt(entry.sender);
+        dos.writeLong(entry.counter);
+        dos.writeInt(entry.data.length);
+        dos.write(entry.data);
+        dos.writeInt(entry.signature.length);
+        dos.write(entry.signature);
+    }
+
+    private static Entry read(DataInputStream dis) throws IOException {
+        int sender = dis.readInt();
+        long counter = dis.readLong();
+        byte[] data = readBytes(dis);
+        byte[] signature = readBytes(dis);
+        return new Entry(sender, counter, data, signature);
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0 || length > dis.available()) {
+            throw new IOException("Malformed measurements");
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return bytes;
+    }
+}
@@ -4,7 +4,8 @@ import bftsmart.reconfiguration.ServerViewController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This class allows to store and receive a replica's own  monitoring information. Note that all measurement data in here
@@ -14,12 +15,26 @@ import java.util.*;
  */
 public class MessageLatencyMonitor {
 
+    // Marks a slot that is empty, consumed or currently being written
+    private static final int EMPTY = -1;
+
+    // Relative accuracy of the reported latencies
+    private static final double SKETCH_ACCURACY = 0.01;
+
+    // Latencies per replica buffered until the next latency vector is created, later ones are dropped
+    private static final int SAMPLES = 4096;
+
     private int window;
+    private long horizon;
     private ServerViewController controller;
-    private TreeMap<Integer, Integer> sentMsgChallenges;
 
-    private ArrayList<TreeMap<Integer, Long>> sentTimestamps;
-    private ArrayList<TreeMap<Integer, Long>> recvdTimestamps;
+    // Sent timestamps are kept in fixed-size ring buffers indexed by monitoringInstanceID % window until the response
+    // arrives. Replaced as a whole on clear(), so that writers never need a lock
+    private volatile RingBuffers buffers;
+
+    // One latency sketch per replica, fed with the buffered latencies when a latency vector is created, so that
+    // completed round trips never wait for a lock
+    private volatile LatencySketch[] sketches;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -31,21 +46,20 @@ public class MessageLatencyMonitor {
      */
     public MessageLatencyMonitor(ServerViewController controller) {
         this.window = controller.getStaticConf().getMonitoringWindow();
+        this.horizon = controller.getStaticConf().getMonitoringHorizon() * 1000000000L;
         this.controller = controller;
         init();
     }
 
     private synchronized void init() {
         int n = controller.getCurrentViewN();
-        this.sentTimestamps = new ArrayList<>();
-        this.recvdTimestamps = new ArrayList<>();
-
+        this.buffers = new RingBuffers(n, window);
+        LatencySketch[] sketches = new LatencySketch[n];
+        long now = System.nanoTime();
         for (int i = 0; i < n; i++) {
-            sentTimestamps.add(i, new TreeMap<>());
-            recvdTimestamps.add(i, new TreeMap<>());
-
+            sketches[i] = new LatencySketch(SKETCH_ACCURACY, horizon, now);
         }
-        sentMsgChallenges = new TreeMap<>();  // Todo only in BFT
+        this.sketches = sketches;
     }
 
     /**
@@ -55,12 +69,14 @@ public class MessageLatencyMonitor {
      * @param monitoringInstanceID id
      * @param timestamp            time
      */
-    public synchronized void addSentTime(int replicaID, int monitoringInstanceID, Long timestamp) {
-        // Clear old received timestamp from last monitoring window
-        Map<Integer, Long> lastWindowRcvd = recvdTimestamps.get(replicaID);
-        lastWindowRcvd.remove(monitoringInstanceID);
+    public void addSentTime(int replicaID, int monitoringInstanceID, long timestamp) {
+        RingBuffers b = buffers;
+        int slot = b.slot(replicaID, monitoringInstanceID);
 
-        this.sentTimestamps.get(replicaID).put(monitoringInstanceID % window, timestamp);
+        // The id is written last and validates the timestamp
+        b.sentIds.set(slot, EMPTY);
+        b.sentTimes.set(slot, timestamp);
+        b.sentIds.set(slot, monitoringInstanceID);
     }
 
     /**
@@ -70,25 +86,34 @@ public class MessageLatencyMonitor {
      * @param monitoringInstanceID id
      * @param timestamp            time
      */
-    public synchronized void addSentTime(int replicaID, int monitoringInstanceID, Long timestamp, int challenge) {
-        this.addSentTime(replicaID, monitoringInstanceID, timestamp);
-
+    public void addSentTime(int replicaID, int monitoringInstanceID, long timestamp, int challenge) {
         // Todo only in BFT:
-        this.sentMsgChallenges.put(monitoringInstanceID % window, challenge);
+        buffers.challenges.set(Math.floorMod(monitoringInstanceID, window), challenge);
+
+        this.addSentTime(replicaID, monitoringInstanceID, timestamp);
     }
 
 
     /**
-     * Adds a received timestamp
+     * Adds a received timestamp, i.e., records the latency of a completed round trip. Called by the thread that
+     * processes the messages of the other replicas only.
      *
      * @param replicaID            sender
      * @param monitoringInstanceID id
-     * @param timestamp            time
      */
-    public synchronized void addRecvdTime(int replicaID, int monitoringInstanceID) {
-        // Only add a response message timestamp if there is a corresponding sent message
-        if (this.sentTimestamps.get(replicaID).get(monitoringInstanceID % window) != null) { //
-            this.recvdTimestamps.get(replicaID).put(monitoringInstanceID % window, System.nanoTime());
+    public void addRecvdTime(int replicaID, int monitoringInstanceID) {
+        long rcvd = System.nanoTime();
+        RingBuffers b = buffers;
+        int slot = b.slot(replicaID, monitoringInstanceID);
+
+        // Only add a response message timestamp if there is a corresponding sent message. The slot is consumed, so
+        // that a duplicated response is not counted twice
+        if (b.sentIds.get(slot) == monitoringInstanceID) {
+            long sent = b.sentTimes.get(slot);
+            if (b.sentIds.compareAndSet(slot, monitoringInstanceID, EMPTY)) {
+                long latency = (rcvd - sent) / 2; // one-way latency as half of round trip time
+                b.addSample(replicaID, latency, rcvd);
+            }
         }
     }
 
@@ -97,15 +122,14 @@ public class MessageLatencyMonitor {
      *
      * @param replicaID            sender
      * @param monitoringInstanceID id
-     * @param timestamp            time
      */
-    public synchronized void addRecvdTime(int replicaID, int monitoringInstanceID, int challenge) {
+    public void addRecvdTime(int replicaID, int monitoringInstanceID, int challenge) {
         // Only add a response message timestamp if there is a corresponding sent message AND challenge was included in response
-        Integer sentChallenge = this.sentMsgChallenges.get(monitoringInstanceID % window);
-        if (sentChallenge != null && sentChallenge == challenge) {
+        int sentChallenge = buffers.challenges.get(Math.floorMod(monitoringInstanceID, window));
+        if (sentChallenge == challenge) {
             this.addRecvdTime(replicaID, monitoringInstanceID);
         } else {
-           logger.warn(challenge +" " +monitoringInstanceID  + " does not EQUAL Expected " + this.sentMsgChallenges.get(monitoringInstanceID % window));
+           logger.warn(challenge +" " +monitoringInstanceID  + " does not EQUAL Expected " + sentChallenge);
            // should never reach here?
         }
     }
@@ -115,7 +139,7 @@ public class MessageLatencyMonitor {
      *
      * @return latencies to all other nodes
      */
-    public synchronized Long[] create_L(String description) {
+    public Long[] create_L(String description) {
         long start = System.nanoTime();
         int n = controller.getCurrentViewN();
 
@@ -124,25 +148,11 @@ public class MessageLatencyMonitor {
         int myself = controller.getStaticConf().getProcessId();
 
         // Compute latencies to all other nodes
+        LatencySketch[] sketches = drain();
+        long now = System.nanoTime();
         for (int i = 0; i < n; i++) {
-
-            // within monitoring interval [start = lastQuery; end = lastQuery + window]
-            Map<Integer, Long> replicaRecvdTimes = recvdTimestamps.get(i).subMap(0, window); // Todo should not be necessary anymore?
-            Map<Integer, Long> replicaSentTimes = sentTimestamps.get(i).subMap(0, window);
-
-            ArrayList<Long> latencies = new ArrayList<>();
-            for (Integer monitoringInstance : replicaRecvdTimes.keySet()) {
-                Long rcvd = replicaRecvdTimes.get(monitoringInstance);
-                Long sent = replicaSentTimes.get(monitoringInstance);
-                if (rcvd != null) {
-                    long latency = (rcvd - sent) / 2; // one-way latency as half of round trip time
-                    // logger.info("Latency computed " + (double) Math.round((double) latency / 1000) / 1000.00 + " ms");
-                    latencies.add(latency);
-                }
-            }
-            latencies.sort(Comparator.naturalOrder());
-            // If there are not latencies (e.g. a replica crashed) report with -1 (Failure value)
-            Long medianValue = latencies.size() > 0 ? latencies.get(latencies.size() / 2) : Monitor.MISSING_VALUE;
+            // If there are no recent latencies (e.g. a replica crashed) the sketch reports the failure value
+            Long medianValue = sketches[i].quantile(0.50, now);
             latency_vector[i] = medianValue;
             // logger.info("-- Size of " + replicaRecvdTimes.size());
         }
@@ -155,15 +165,56 @@ public class MessageLatencyMonitor {
         return latency_vector;
     }
 
+    /**
+     * Creates the latency distributions from the current replicas perspective, described by quantiles
+     *
+     * @param description description for logging
+     * @param levels      ascending quantile levels in [0,1]
+     * @return quantiles[i][k] is the quantile at levels[k] of the latencies to node i
+     */
+    public Long[][] create_Q(String description, double[] levels) {
+        long start = System.nanoTime();
+        int n = controller.getCurrentViewN();
+        int myself = controller.getStaticConf().getProcessId();
+
+        Long[][] quantiles = new Long[n][levels.length];
+        LatencySketch[] sketches = drain();
+        long now = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < levels.length; k++) {
+                // Assume self-latency is zero
+                quantiles[i][k] = i == myself ? 0L : sketches[i].quantile(levels[k], now);
+            }
+        }
+
+        long end = System.nanoTime();
+        logger.debug("Computed latency distributions for " + description + "  in " + (double) (end - start) / 1000000.00 + " ms");
+        return quantiles;
+    }
+
+    /**
+     * Adds the latencies buffered since the last call to the sketches
+     *
+     * @return sketches
+     */
+    private synchronized LatencySketch[] drain() {
+        RingBuffers b = buffers;
+        LatencySketch[] sketches = this.sketches;
+        for (int i = 0; i < sketches.length; i++) {
+            long written = b.written.get(i);
+            for (long k = b.consumed.get(i); k < written; k++) {
+                int sample = b.sample(i, k);
+                sketches[i].add(b.samples.get(sample), b.samples.get(sample + 1));
+            }
+            b.consumed.set(i, written);
+        }
+        return sketches;
+    }
+
     /**
      * Clears timestamps
      */
     public synchronized void clear() {
-        sentTimestamps.clear();
-        recvdTimestamps.clear();
-        if (sentMsgChallenges != null)
-            sentMsgChallenges.clear();
-
         init();
     }
 
@@ -195,4 +246,54 @@ public class MessageLatencyMonitor {
         logger.info(result);
     }
 
+    /**
+     * Sent timestamps of all replicas, slot i * window + (monitoringInstanceID % window) belongs to replica i. Each
+     * slot is written by the sender of monitored messages and consumed by the receiver of the responses.
+     *
+     * Measured latencies of all replicas, sample k of replica i is stored as (latency, time) pair in the samples of
+     * replica i at k % SAMPLES. They are written by the receiver of the responses only and consumed by drain().
+     */
+    private static class RingBuffers {
+
+        private final int window;
+        private final AtomicLongArray sentTimes;
+        private final AtomicIntegerArray sentIds;
+        private final AtomicIntegerArray challenges;
+        private final AtomicLongArray samples;
+        private final AtomicLongArray written; // samples written per replica
+        private final AtomicLongArray consumed; // samples consumed per replica
+
+        private RingBuffers(int n, int window) {
+            this.window = window;
+            this.sentTimes = new AtomicLongArray(n * window);
+            this.sentIds = new AtomicIntegerArray(n * window);
+            this.challenges = new AtomicIntegerArray(window);
+            this.samples = new AtomicLongArray(n * SAMPLES * 2);
+            this.written = new AtomicLongArray(n);
+            this.consumed = new AtomicLongArray(n);
+            for (int slot = 0; slot < n * window; slot++) {
+                sentIds.set(slot, EMPTY);
+            }
+        }
+
+        private int slot(int replicaID, int monitoringInstanceID) {
+            return replicaID * window + Math.floorMod(monitoringInstanceID, window);
+        }
+
+        private int sample(int replicaID, long k) {
+            return (replicaID * SAMPLES + (int) (k % SAMPLES)) * 2;
+        }
+
+        private void addSample(int replicaID, long latency, long time) {
+            long k = written.get(replicaID);
+            if (k - consumed.get(replicaID) >= SAMPLES) {
+                return; // full until the next drain
+            }
+            int sample = sample(replicaID, k);
+            samples.set(sample, latency);
+            samples.set(sample + 1, time);
+            written.set(replicaID, k + 1); // publishes the sample
+        }
+    }
+
 }
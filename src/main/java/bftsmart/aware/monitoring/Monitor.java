@@ -1,12 +1,21 @@
 package bftsmart.aware.monitoring;
 
+import bftsmart.communication.server.LinkStatistics;
+import bftsmart.communication.server.ServersCommunicationLayer;
 import bftsmart.consensus.Decision;
 import bftsmart.consensus.Epoch;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.util.BatchReader;
+import bftsmart.tom.util.TOMUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -24,6 +33,9 @@ public class Monitor {
     // value is very large for a latency, roughly
     // 10.000 seconds and will be used
 
+    // Quantile levels that describe the latency distribution of a link
+    public static final double[] QUANTILE_LEVELS = {0.00, 0.10, 0.25, 0.50, 0.75, 0.90, 0.95, 0.99, 1.00};
+
     // Singelton
     private static Monitor instance;
 
@@ -42,10 +54,60 @@ public class Monitor {
 
     // The measured latency matrices which have been disseminated with total order
     // They are the same in all replicas for a defined consensus id, after all TOMMessages within this consensus
-    // have been processed.
+    // have been processed. Rows are replaced but never modified, so that captured states can share them.
     private Long[][] m_propose;
     private Long[][] m_write;
 
+    // Latency distributions of the links, m_propose_q[i][j][k] is the quantile at QUANTILE_LEVELS[k], disseminated
+    // with total order like the matrices above
+    private Long[][][] m_propose_q;
+    private Long[][][] m_write_q;
+
+    // Last measurements delivered from every replica, base of the compact encoding. Not reset with the matrices, so
+    // that the encoding does not depend on optimization intervals
+    private Measurements[] lastMeasurements;
+
+    // Number of measurements delivered so far, the same in all replicas for a defined consensus id
+    private long deliveredMeasurements = 0;
+
+    // Counters of the last piggybacked measurements delivered from every replica; measurements with smaller or equal
+    // counters are proposed twice while in flight, or replayed
+    private long[] piggybackCounters;
+
+    // Measurements piggybacked on consensus messages and proposals
+    private MeasurementsPiggyback piggyback;
+
+    // Time this replica needs to process a PROPOSE until it sends its WRITE, and a WRITE quorum until it sends its ACCEPT
+    private LatencySketch proposeProcessing;
+    private LatencySketch writeProcessing;
+
+    // Processing delays disseminated with total order, m_processing[i] = {PROPOSE delay, ACCEPT delay} of replica i
+    private Long[][] m_processing;
+
+    // Persisted matrices of past calculation intervals, null if disabled
+    private LatencyHistory history;
+
+    // Matrices at the end of the last calculation interval, used for links without measurements in the current one.
+    // Part of the transferred state, so that a recovered replica fills in the same latencies as the others
+    private LatencyHistory.Record archived;
+
+    // Communication layer whose traffic counters are used to estimate the bandwidths of the links of this replica
+    private ServersCommunicationLayer serversConn;
+
+    // Bandwidth estimates (bytes per second) of the links of this replica, Monitor.MISSING_VALUE if never measured
+    private long[] bandwidthEstimates;
+
+    // Fraction of an interval a sender must be blocked in socket writes for its link to count as saturated
+    private static final double SATURATION = 0.50;
+
+    // Link bandwidths (bytes per second) disseminated with total order, used by the throughput model
+    private Long[][] m_bandwidth;
+
+    // Sizes of the batches decided since the last optimization, the same in all replicas for a defined consensus id
+    private long decidedBytes;
+    private long decidedRequests;
+    private int decidedBatches;
+
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
 
@@ -61,6 +123,17 @@ public class Monitor {
         this.proposeLatencyMonitor = new MessageLatencyMonitor(svc);
 
         init(n);
+        this.lastMeasurements = new Measurements[n];
+        this.piggybackCounters = new long[n];
+        long horizon = svc.getStaticConf().getMonitoringHorizon() * 1000000000L;
+        this.proposeProcessing = new LatencySketch(0.01, horizon, System.nanoTime());
+        this.writeProcessing = new LatencySketch(0.01, horizon, System.nanoTime());
+        this.piggyback = new MeasurementsPiggyback(svc.getStaticConf().getProcessId(), n);
+        if (svc.getStaticConf().getLatencyHistory() != null) {
+            this.history = new LatencyHistory(svc.getStaticConf().getLatencyHistory(), svc.getStaticConf().getProcessId());
+        }
+        this.bandwidthEstimates = new long[n];
+        Arrays.fill(bandwidthEstimates, MISSING_VALUE);
 
         // Periodically compute point-to-pont latencies
         Timer timer = new Timer();
@@ -108,6 +181,87 @@ public class Monitor {
         return writeLatencyMonitor.create_L("WRITE");
     }
 
+    public Long[][] getFreshestProposeQuantiles() {
+        return proposeLatencyMonitor.create_Q("PROPOSE", QUANTILE_LEVELS);
+    }
+
+    public Long[][] getFreshestWriteQuantiles() {
+        return writeLatencyMonitor.create_Q("WRITE", QUANTILE_LEVELS);
+    }
+
+    /**
+     * Records the time from receiving a PROPOSE to sending the WRITE (or the ACCEPT in CFT mode)
+     *
+     * @param delay time in ns
+     */
+    public void addProposeProcessingTime(long delay) {
+        proposeProcessing.add(delay, System.nanoTime());
+    }
+
+    /**
+     * Records the time from forming a WRITE quorum to sending the ACCEPT
+     *
+     * @param delay time in ns
+     */
+    public void addWriteProcessingTime(long delay) {
+        writeProcessing.add(delay, System.nanoTime());
+    }
+
+    /**
+     * Median processing delays of this replica
+     *
+     * @return {PROPOSE delay, ACCEPT delay} in ns, 0 for delays that have not been measured recently
+     */
+    public Long[] getFreshestProcessingDelays() {
+        long now = System.nanoTime();
+        long propose = proposeProcessing.quantile(0.50, now);
+        long accept = writeProcessing.quantile(0.50, now);
+        return new Long[]{propose == MISSING_VALUE ? 0L : propose, accept == MISSING_VALUE ? 0L : accept};
+    }
+
+    public void setServersConn(ServersCommunicationLayer serversConn) {
+        this.serversConn = serversConn;
+    }
+
+    /**
+     * Bandwidth estimates of the links from this replica to all other replicas. As long as links are not measured,
+     * the configured default bandwidth is reported.
+     *
+     * Every call samples the traffic counters of the links. If the sender of a link was blocked in socket writes for
+     * most of the interval, the link is saturated and the bytes it wrote per second blocked estimate its bandwidth.
+     * Otherwise, the bytes it sent per second are only a lower bound and raise the estimate (or the default) if they
+     * exceed it.
+     *
+     * @return bandwidths in bytes per second
+     */
+    public synchronized Long[] getFreshestBandwidths() {
+        int n = svc.getCurrentViewN();
+        if (serversConn != null && bandwidthEstimates.length == n) {
+            for (Map.Entry<Integer, LinkStatistics.Sample> link : serversConn.sampleLinkStatistics().entrySet()) {
+                int i = link.getKey();
+                LinkStatistics.Sample sample = link.getValue();
+                if (i < 0 || i >= n || sample.getBytesSent() == 0) {
+                    continue;
+                }
+                logger.debug("Link to {}: {}", i, sample);
+                if (sample.getStallFraction() >= SATURATION) {
+                    bandwidthEstimates[i] = Math.round(sample.getBytesSent() * 1e9 / sample.getWriteStall());
+                } else {
+                    long known = bandwidthEstimates[i] != MISSING_VALUE ? bandwidthEstimates[i] :
+                            svc.getStaticConf().getDefaultBandwidth();
+                    if (sample.getBytesSentPerSecond() > known) {
+                        bandwidthEstimates[i] = Math.round(sample.getBytesSentPerSecond());
+                    }
+                }
+            }
+        }
+        Long[] bandwidths = new Long[n];
+        for (int i = 0; i < n; i++)
+            bandwidths[i] = i < bandwidthEstimates.length && bandwidthEstimates[i] != MISSING_VALUE ?
+                    bandwidthEstimates[i] : svc.getStaticConf().getDefaultBandwidth();
+        return bandwidths;
+    }
+
 
     /**
      * Processes measurements decided in come consensus
@@ -128,12 +282,51 @@ public class Monitor {
 
     public void handleMonitoringMessages(Decision decision) {
         if (svc.getStaticConf().isUseDynamicWeights()) {
+            if (decision.getValue() != null && decision.getDeserializedValue() != null) {
+                decidedBytes += decision.getValue().length;
+                decidedRequests += decision.getDeserializedValue().length;
+                decidedBatches++;
+            }
             for (TOMMessage tm : decision.getDeserializedValue()) {
                 if (tm.getIsMonitoringMessage()) {
                     logger.debug("Received disseminated monitoring message ");
                     onReceiveMonitoringInformation(tm.getSender(), tm.getContent(), decision.getConsensusId());
                 }
             }
+            if (svc.getStaticConf().isPiggybackMeasurements() && decision.getValue() != null) {
+                handlePiggybackedMeasurements(decision);
+            }
+        }
+    }
+
+    /**
+     * Processes the measurements the leader appended to a decided proposal. Measurements with an invalid signature
+     * are discarded by all replicas.
+     *
+     * @param decision decision
+     */
+    private void handlePiggybackedMeasurements(Decision decision) {
+        byte[] metadata;
+        try {
+            metadata = BatchReader.readMetadata(decision.getValue(), svc.getStaticConf().getUseSignatures() == 1);
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (metadata == null) {
+            return;
+        }
+        for (MeasurementsPiggyback.Entry entry : MeasurementsPiggyback.fromMetadata(metadata)) {
+            if (!svc.isCurrentViewMember(entry.sender) || entry.sender >= piggybackCounters.length
+                    || entry.counter <= piggybackCounters[entry.sender]
+                    || !TOMUtil.verifySignature(svc.getStaticConf().getPublicKey(entry.sender),
+                    MeasurementsPiggyback.signedBytes(entry.counter, entry.data), entry.signature)) {
+                logger.debug("Discarding piggybacked measurements of " + entry.sender);
+                continue;
+            }
+            logger.debug("Received piggybacked monitoring information");
+            piggybackCounters[entry.sender] = entry.counter;
+            onReceiveMonitoringInformation(entry.sender, entry.data, decision.getConsensusId());
+            piggyback.onDelivered(entry.sender, entry.counter);
         }
     }
 
@@ -146,15 +339,61 @@ public class Monitor {
     private void onReceiveMonitoringInformation(int sender, byte[] value, int consensusID) {
         int n = svc.getCurrentViewN();
 
-        Measurements li = Measurements.fromBytes(value);
-        m_write[sender] = li.writeLatencies;
-        m_propose[sender] = li.proposeLatencies;
+        if (sender < 0 || sender >= n || sender >= lastMeasurements.length) {
+            logger.debug("Discarding measurements of " + sender + ", not a replica of the current view");
+            return;
+        }
+        Measurements last = lastMeasurements[sender];
+        Measurements li = Measurements.fromBytes(value, last);
+        if (li == null) {
+            // All replicas reject the measurements, they have been encoded against a superseded base
+            logger.debug("Discarding measurements of " + sender + " encoded against an outdated base");
+            return;
+        }
+        if (!li.isComplete(n)) {
+            // All replicas decode the same bytes, hence they all discard them
+            logger.warn("Discarding malformed measurements of " + sender);
+            return;
+        }
+        li.seq = last != null ? last.seq + 1 : 1;
+        lastMeasurements[sender] = li;
+        deliveredMeasurements++;
+        setRows(sender, li, n);
 
         // Debugging and testing:
        // printM("PROPOSE", m_propose, consensusID, n);
         //printM("WRITE", m_write, consensusID, n);
     }
 
+    /**
+     * Writes the measurements of a replica into its rows of the matrices
+     *
+     * @param sender replica that made the measurements
+     * @param li     measurements, complete for n replicas
+     * @param n      number of replicas
+     */
+    private void setRows(int sender, Measurements li, int n) {
+        m_write[sender] = li.writeLatencies;
+        m_propose[sender] = li.proposeLatencies;
+        if (li.bandwidths != null) {
+            m_bandwidth[sender] = li.bandwidths;
+        }
+        if (li.processingDelays != null && li.processingDelays.length >= 2) {
+            m_processing[sender] = new Long[]{li.processingDelays[0], li.processingDelays[1]};
+        }
+        // Without a reported distribution, a link is assumed to always have its median latency
+        boolean distributions = li.writeQuantiles != null && li.proposeQuantiles != null
+                && li.writeQuantiles[0].length == QUANTILE_LEVELS.length;
+        Long[][] writeQuantiles = new Long[n][];
+        Long[][] proposeQuantiles = new Long[n][];
+        for (int j = 0; j < n; j++) {
+            writeQuantiles[j] = distributions ? li.writeQuantiles[j] : constantQuantiles(li.writeLatencies[j]);
+            proposeQuantiles[j] = distributions ? li.proposeQuantiles[j] : constantQuantiles(li.proposeLatencies[j]);
+        }
+        m_write_q[sender] = writeQuantiles;
+        m_propose_q[sender] = proposeQuantiles;
+    }
+
 
     /**
      * Assume communication link delays are symmetric and use the maximum
@@ -173,6 +412,48 @@ public class Monitor {
         return m_ast;
     }
 
+    /**
+     * Assume communication link delays are symmetric and use the maximum of every quantile
+     *
+     * @param m latency distributions
+     * @return sanitized latency distributions
+     */
+    public long[][][] sanitizeQuantiles(Long[][][] m) {
+        int n = svc.getCurrentViewN();
+        long[][][] m_ast = new long[n][n][QUANTILE_LEVELS.length];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                for (int k = 0; k < QUANTILE_LEVELS.length; k++) {
+                    m_ast[i][j][k] = Math.max(m[i][j][k], m[j][i][k]);
+                }
+            }
+        }
+        return m_ast;
+    }
+
+    private static Long[] constantQuantiles(Long latency) {
+        Long[] quantiles = new Long[QUANTILE_LEVELS.length];
+        Arrays.fill(quantiles, latency);
+        return quantiles;
+    }
+
+    /**
+     * Assume link bandwidths are symmetric and use the minimum
+     *
+     * @param m bandwidth matrix
+     * @return sanitized bandwidth matrix
+     */
+    public Long[][] sanitizeBandwidth(Long[][] m) {
+        int n = svc.getCurrentViewN();
+        Long[][] m_ast = new Long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                m_ast[i][j] = Math.min(m[i][j], m[j][i]);
+            }
+        }
+        return m_ast;
+    }
+
     private static void printM(String description, Long[][] matrix, int consensusID, int n) {
         String result = "";
         result += ("--------------- " + description + " ---------------------\n");
@@ -204,16 +485,382 @@ public class Monitor {
         return m_write;
     }
 
+    /**
+     * Gets the last measurements of a replica that have been delivered with total order
+     *
+     * @param replica replica id
+     * @return measurements or null if none have been delivered yet
+     */
+    public Measurements getLastMeasurements(int replica) {
+        return lastMeasurements[replica];
+    }
+
+    /**
+     * Gets the WRITE latencies last delivered from every replica. Unlike the matrices of the current optimization
+     * interval, they are not reset after an optimization.
+     *
+     * @return latency matrix, missing values for replicas that never delivered measurements
+     */
+    public Long[][] getLatestM_write() {
+        int n = svc.getCurrentViewN();
+        Long[][] m = new Long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                Measurements li = lastMeasurements[i];
+                m[i][j] = li != null && j < li.n ? li.writeLatencies[j] : MISSING_VALUE;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Gets the PROPOSE latencies last delivered from every replica, see getLatestM_write()
+     *
+     * @return latency matrix, missing values for replicas that never delivered measurements
+     */
+    public Long[][] getLatestM_propose() {
+        int n = svc.getCurrentViewN();
+        Long[][] m = new Long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                Measurements li = lastMeasurements[i];
+                m[i][j] = li != null && j < li.n ? li.proposeLatencies[j] : MISSING_VALUE;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Gets the processing delays last delivered from every replica, see getLatestM_write()
+     *
+     * @return processing delays, {0, 0} for replicas that never delivered them
+     */
+    public Long[][] getLatestM_processing() {
+        int n = svc.getCurrentViewN();
+        Long[][] m = new Long[n][];
+        for (int i = 0; i < n; i++) {
+            Measurements li = lastMeasurements[i];
+            m[i] = li != null && li.processingDelays != null && li.processingDelays.length >= 2 ?
+                    new Long[]{li.processingDelays[0], li.processingDelays[1]} : new Long[]{0L, 0L};
+        }
+        return m;
+    }
+
+    public long getDeliveredMeasurements() {
+        return deliveredMeasurements;
+    }
+
+    public MeasurementsPiggyback getPiggyback() {
+        return piggyback;
+    }
+
+    public Long[][][] getM_propose_q() {
+        return m_propose_q;
+    }
+
+    public Long[][][] getM_write_q() {
+        return m_write_q;
+    }
+
+    public Long[][] getM_bandwidth() {
+        return m_bandwidth;
+    }
+
+    public Long[][] getM_processing() {
+        return m_processing;
+    }
+
+    /**
+     * Average size of the batches decided since the last optimization
+     *
+     * @return average proposal size in bytes, 0 if nothing was decided
+     */
+    public long getAverageProposalSize() {
+        return decidedBatches > 0 ? decidedBytes / decidedBatches : 0L;
+    }
+
+    /**
+     * Average number of requests of the batches decided since the last optimization
+     *
+     * @return average number of requests per batch, 0 if nothing was decided
+     */
+    public double getAverageBatchSize() {
+        return decidedBatches > 0 ? (double) decidedRequests / (double) decidedBatches : 0.00;
+    }
+
+    /**
+     * Ends a calculation interval: keeps the matrices disseminated in it for the next one and appends them to the
+     * history, called by all replicas at the same consensus instance before init()
+     *
+     * @param cid consensus id
+     */
+    public void archive(int cid) {
+        if (history == null) {
+            return;
+        }
+        // Rounded like the record a recovering replica loads, so that all replicas fill in the same latencies
+        archived = history.append(cid, m_propose, m_write);
+    }
+
+    /**
+     * Reloads the matrices of the last calculation interval before a recovered consensus instance from the history.
+     * Only used if no state has been transferred with the recovered consensus instance; the state carries the
+     * matrices the other replicas fill in with (see getState()).
+     *
+     * @param cid      consensus id of the recovered state
+     * @param interval calculation interval
+     * @return true if the history contains the matrices of that interval
+     */
+    public boolean warmStart(int cid, int interval) {
+        if (history == null || cid <= 0) {
+            return false;
+        }
+        int boundary = cid - cid % interval;
+        LatencyHistory.Record record = history.load(cid);
+        if (record == null || record.cid != boundary || record.write.length != svc.getCurrentViewN()) {
+            logger.info("No latencies of consensus " + boundary + " in the history, starting without them");
+            return false;
+        }
+        archived = record;
+        logger.info("Reloaded latencies of consensus " + boundary + " from the history");
+        return true;
+    }
+
+    /**
+     * Fills the links without measurements in a matrix with the matrix at the end of the last calculation interval
+     *
+     * @param m     WRITE or PROPOSE latencies disseminated in the current calculation interval
+     * @param write true for WRITE latencies
+     * @return a new matrix, or m itself if the history is disabled
+     */
+    public Long[][] fillFromArchive(Long[][] m, boolean write) {
+        if (archived == null || archived.write.length != m.length) {
+            return m;
+        }
+        Long[][] last = write ? archived.write : archived.propose;
+        Long[][] filled = new Long[m.length][];
+        for (int i = 0; i < m.length; i++) {
+            filled[i] = m[i].clone();
+            for (int j = 0; j < m.length; j++) {
+                if (filled[i][j] == MISSING_VALUE) {
+                    filled[i][j] = last[i][j];
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Captures the state of the monitor that all correct replicas agree on after the current consensus instance
+     *
+     * @return state, sharing the rows of the matrices
+     */
+    public State getState() {
+        return new State(m_propose.clone(), m_write.clone(), m_propose_q.clone(), m_write_q.clone(),
+                m_bandwidth.clone(), m_processing.clone(), decidedBytes, decidedRequests, decidedBatches,
+                lastMeasurements.clone(), deliveredMeasurements, piggybackCounters.clone(), archived);
+    }
+
+    /**
+     * Installs the state of the monitor that has been transferred from other replicas
+     *
+     * @param state state after the consensus instance this replica recovered
+     */
+    public void setState(State state) {
+        // Rows are replaced in the matrices, the state may be recorded and sent to other replicas as well
+        this.m_propose = state.propose.clone();
+        this.m_write = state.write.clone();
+        this.m_propose_q = state.proposeQuantiles.clone();
+        this.m_write_q = state.writeQuantiles.clone();
+        this.m_bandwidth = state.bandwidth.clone();
+        this.m_processing = state.processing.clone();
+        this.decidedBytes = state.decidedBytes;
+        this.decidedRequests = state.decidedRequests;
+        this.decidedBatches = state.decidedBatches;
+        this.lastMeasurements = state.lastMeasurements.clone();
+        this.deliveredMeasurements = state.deliveredMeasurements;
+        this.piggybackCounters = state.piggybackCounters.clone();
+        this.archived = state.archived;
+        for (int i = 0; i < piggybackCounters.length; i++) {
+            piggyback.onDelivered(i, piggybackCounters[i]);
+        }
+    }
+
     public void init(int n) {
         this.m_propose = new Long[n][n];
         this.m_write = new Long[n][n];
+        this.m_bandwidth = new Long[n][n];
+        this.m_propose_q = new Long[n][n][];
+        this.m_write_q = new Long[n][n][];
+        this.m_processing = new Long[n][];
         for (int i = 0; i < n; i++) {
+            m_processing[i] = new Long[]{0L, 0L};
             for (int j = 0; j < n; j++) {
                 m_write[i][j] = MISSING_VALUE;
                 m_propose[i][j] = MISSING_VALUE;
+                m_write_q[i][j] = constantQuantiles(MISSING_VALUE);
+                m_propose_q[i][j] = constantQuantiles(MISSING_VALUE);
+                m_bandwidth[i][j] = svc.getStaticConf().getDefaultBandwidth();
+            }
+        }
+        this.decidedBytes = 0;
+        this.decidedRequests = 0;
+        this.decidedBatches = 0;
+
+        // With adaptive dissemination, a replica whose latencies are stable stays quiet for up to the heartbeat. Its
+        // last delivered measurements still hold, instead of making its links look silent in the next interval.
+        // Links to a replica that became silent are reported by the others, since silence always counts as a change
+        if (svc.getStaticConf().getDisseminationThreshold() > 0 && lastMeasurements != null) {
+            for (int i = 0; i < Math.min(n, lastMeasurements.length); i++) {
+                if (lastMeasurements[i] != null && lastMeasurements[i].n == n) {
+                    setRows(i, lastMeasurements[i], n);
+                }
             }
         }
     }
 
+    /**
+     * State of the monitor after some consensus instance that is the same in all correct replicas, transferred to
+     * replicas that recover the state of this consensus instance
+     */
+    public static final class State {
+
+        private final Long[][] propose;
+        private final Long[][] write;
+        private final Long[][][] proposeQuantiles;
+        private final Long[][][] writeQuantiles;
+        private final Long[][] bandwidth;
+        private final Long[][] processing;
+        private final long decidedBytes;
+        private final long decidedRequests;
+        private final int decidedBatches;
+        private final Measurements[] lastMeasurements; // bases of the compact encoding
+        private final long deliveredMeasurements;
+        private final long[] piggybackCounters;
+        private final LatencyHistory.Record archived; // null if the history is disabled or empty
+
+        private State(Long[][] propose, Long[][] write, Long[][][] proposeQuantiles, Long[][][] writeQuantiles,
+                      Long[][] bandwidth, Long[][] processing, long decidedBytes, long decidedRequests,
+                      int decidedBatches, Measurements[] lastMeasurements, long deliveredMeasurements,
+                      long[] piggybackCounters, LatencyHistory.Record archived) {
+            this.propose = propose;
+            this.write = write;
+            this.proposeQuantiles = proposeQuantiles;
+            this.writeQuantiles = writeQuantiles;
+            this.bandwidth = bandwidth;
+            this.processing = processing;
+            this.decidedBytes = decidedBytes;
+            this.decidedRequests = decidedRequests;
+            this.decidedBatches = decidedBatches;
+            this.lastMeasurements = lastMeasurements;
+            this.deliveredMeasurements = deliveredMeasurements;
+            this.piggybackCounters = piggybackCounters;
+            this.archived = archived;
+        }
+
+        /**
+         * Writes the state, the same bytes in all replicas that captured it after the same consensus instance
+         *
+         * @param out output
+         * @throws IOException if the output fails
+         */
+        public void write(DataOutputStream out) throws IOException {
+            writeMatrix(out, propose);
+            writeMatrix(out, write);
+            out.writeInt(proposeQuantiles.length);
+            for (Long[][] m : proposeQuantiles)
+                writeMatrix(out, m);
+            out.writeInt(writeQuantiles.length);
+            for (Long[][] m : writeQuantiles)
+                writeMatrix(out, m);
+            writeMatrix(out, bandwidth);
+            writeMatrix(out, processing);
+            out.writeLong(decidedBytes);
+            out.writeLong(decidedRequests);
+            out.writeInt(decidedBatches);
+            out.writeInt(lastMeasurements.length);
+            for (Measurements li : lastMeasurements) {
+                out.writeBoolean(li != null);
+                if (li != null) {
+                    li.write(out);
+                }
+            }
+            out.writeLong(deliveredMeasurements);
+            out.writeInt(piggybackCounters.length);
+            for (long counter : piggybackCounters)
+                out.writeLong(counter);
+            out.writeBoolean(archived != null);
+            if (archived != null) {
+                out.writeInt(archived.cid);
+                writeMatrix(out, archived.propose);
+                writeMatrix(out, archived.write);
+            }
+        }
+
+        /**
+         * Reads a state written by write()
+         *
+         * @param in input
+         * @return state
+         * @throws IOException if the input is malformed
+         */
+        public static State read(DataInputStream in) throws IOException {
+            Long[][] propose = readMatrix(in);
+            Long[][] write = readMatrix(in);
+            Long[][][] proposeQuantiles = new Long[readLength(in)][][];
+            for (int i = 0; i < proposeQuantiles.length; i++)
+                proposeQuantiles[i] = readMatrix(in);
+            Long[][][] writeQuantiles = new Long[readLength(in)][][];
+            for (int i = 0; i < writeQuantiles.length; i++)
+                writeQuantiles[i] = readMatrix(in);
+            Long[][] bandwidth = readMatrix(in);
+            Long[][] processing = readMatrix(in);
+            long decidedBytes = in.readLong();
+            long decidedRequests = in.readLong();
+            int decidedBatches = in.readInt();
+            Measurements[] lastMeasurements = new Measurements[readLength(in)];
+            for (int i = 0; i < lastMeasurements.length; i++) {
+                lastMeasurements[i] = in.readBoolean() ? Measurements.read(in) : null;
+            }
+            long deliveredMeasurements = in.readLong();
+            long[] piggybackCounters = new long[readLength(in)];
+            for (int i = 0; i < piggybackCounters.length; i++)
+                piggybackCounters[i] = in.readLong();
+            LatencyHistory.Record archived = null;
+            if (in.readBoolean()) {
+                int cid = in.readInt();
+                archived = new LatencyHistory.Record(cid, readMatrix(in), readMatrix(in));
+            }
+            return new State(propose, write, proposeQuantiles, writeQuantiles, bandwidth, processing, decidedBytes,
+                    decidedRequests, decidedBatches, lastMeasurements, deliveredMeasurements, piggybackCounters,
+                    archived);
+        }
+
+        static void writeMatrix(DataOutputStream out, Long[][] m) throws IOException {
+            out.writeInt(m.length);
+            for (Long[] row : m) {
+                out.writeInt(row.length);
+                for (Long l : row)
+                    out.writeLong(l);
+            }
+        }
 
+        static Long[][] readMatrix(DataInputStream in) throws IOException {
+            Long[][] m = new Long[readLength(in)][];
+            for (int i = 0; i < m.length; i++) {
+                m[i] = new Long[readLength(in)];
+                for (int j = 0; j < m[i].length; j++)
+                    m[i][j] = in.readLong();
+            }
+            return m;
+        }
+
+        private static int readLength(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Invalid length " + length);
+            }
+            return length;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package bftsmart.aware.monitoring;
 
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.ServiceProxy;
+import bftsmart.tom.util.TOMUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,6 +13,12 @@ import java.util.TimerTask;
 /**
  * This class disseminates this replicas measurements with total order
  *
+ * Measurements are either disseminated every synchronisation period, or, if a dissemination threshold is configured,
+ * only if a measured value changed by more than the threshold since the measurements of this replica that have last
+ * been delivered with total order, if the last dissemination has not been delivered within a synchronisation period
+ * (e.g., a compact encoding against a superseded base), or if the heartbeat expired. On a stable network, the latter
+ * keeps the ordered monitoring traffic low while degrading links are still reported within one synchronisation period.
+ *
  * @author cb
  */
 public class MonitoringDataSynchronizer {
@@ -20,6 +27,10 @@ public class MonitoringDataSynchronizer {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    // When measurements have been disseminated last (System.nanoTime()), and the sequence number of the measurements
+    // of this replica delivered at that time; -1 if nothing has been disseminated yet
+    private long lastDissemination;
+    private int deliveredSeq = -1;
 
     /**
      * Creates a new Synchronizer to disseminate data with total order
@@ -29,7 +40,11 @@ public class MonitoringDataSynchronizer {
     MonitoringDataSynchronizer(ServerViewController svc) {
 
         int myID = svc.getStaticConf().getProcessId();
-        monitoringDataDisseminationProxy = new ServiceProxy(myID);
+
+        // Piggybacked measurements do not need a client proxy
+        if (!svc.getStaticConf().isPiggybackMeasurements()) {
+            monitoringDataDisseminationProxy = new ServiceProxy(myID);
+        }
 
         // Create a time to periodically broadcast this replica's measurements to all replicas
         Timer timer = new Timer();
@@ -41,16 +56,133 @@ public class MonitoringDataSynchronizer {
                 Long[] writeLatencies = Monitor.getInstance(svc).getFreshestWriteLatencies();
                 Long[] proposeLatencies = Monitor.getInstance(svc).getFreshestProposeLatencies();
 
-                Measurements li = new Measurements(svc.getCurrentViewN(), writeLatencies, proposeLatencies);
-                byte[] data = li.toBytes();
-
-                monitoringDataDisseminationProxy.invokeOrderedMonitoring(data);
+                // Bandwidth estimates are only disseminated if the throughput model uses them
+                Long[] bandwidths = svc.getStaticConf().getOptimizationObjective().equals("latency") ? null :
+                        Monitor.getInstance(svc).getFreshestBandwidths();
+
+                Measurements li = new Measurements(svc.getCurrentViewN(), writeLatencies, proposeLatencies, bandwidths);
+
+                // Latency distributions are only disseminated if tail latencies are predicted
+                if (svc.getStaticConf().getTailPercentile() > 0) {
+                    li.writeQuantiles = Monitor.getInstance(svc).getFreshestWriteQuantiles();
+                    li.proposeQuantiles = Monitor.getInstance(svc).getFreshestProposeQuantiles();
+                }
+
+                // Processing delays are only disseminated if the simulator models them
+                if (svc.getStaticConf().isUseProcessingDelays()) {
+                    li.processingDelays = Monitor.getInstance(svc).getFreshestProcessingDelays();
+                }
+
+                Measurements delivered = Monitor.getInstance(svc).getLastMeasurements(myID);
+                if (!isDisseminationDue(li, delivered, svc.getStaticConf().getDisseminationThreshold(),
+                        svc.getStaticConf().getDisseminationHeartbeat())) {
+                    logger.debug("|---> Measurements did not change, skipping dissemination");
+                    return;
+                }
+
+                // The compact encoding is relative to the last measurements of this replica that have been delivered
+                byte[] data = svc.getStaticConf().isUseCompactMeasurements() ? li.toCompactBytes(delivered) :
+                        li.toBytes();
+
+                if (monitoringDataDisseminationProxy != null) {
+                    monitoringDataDisseminationProxy.invokeOrderedMonitoring(data);
+                } else {
+                    MeasurementsPiggyback piggyback = Monitor.getInstance(svc).getPiggyback();
+                    long counter = piggyback.nextCounter();
+                    piggyback.publish(counter, data, TOMUtil.signMessage(svc.getStaticConf().getPrivateKey(),
+                            MeasurementsPiggyback.signedBytes(counter, data)));
+                }
+                lastDissemination = System.nanoTime();
+                deliveredSeq = delivered != null ? delivered.seq : 0;
 
                 logger.debug("|---> Disseminating monitoring information with total order! ");
             }
         }, svc.getStaticConf().getSynchronisationDelay(), svc.getStaticConf().getSynchronisationPeriod());
     }
 
+    /**
+     * Checks whether measurements should be disseminated
+     *
+     * @param li        current measurements
+     * @param delivered measurements of this replica delivered last with total order, or null
+     * @param threshold relative change of a value above which measurements are disseminated, 0 to always disseminate
+     * @param heartbeat maximum time (ms) between two disseminations
+     * @return true if the measurements should be disseminated
+     */
+    private boolean isDisseminationDue(Measurements li, Measurements delivered, double threshold, int heartbeat) {
+        if (threshold <= 0 || delivered == null || delivered.n != li.n) {
+            return true;
+        }
+        // The last dissemination has not been delivered since, e.g., because its base has been superseded
+        if (deliveredSeq == delivered.seq) {
+            return true;
+        }
+        if (System.nanoTime() - lastDissemination >= heartbeat * 1000000L) {
+            return true;
+        }
+        return drift(delivered.writeLatencies, li.writeLatencies) > threshold
+                || drift(delivered.proposeLatencies, li.proposeLatencies) > threshold
+                || drift(delivered.writeQuantiles, li.writeQuantiles) > threshold
+                || drift(delivered.proposeQuantiles, li.proposeQuantiles) > threshold
+                || drift(delivered.bandwidths, li.bandwidths) > threshold
+                || drift(delivered.processingDelays, li.processingDelays) > threshold;
+    }
+
+    /**
+     * Computes the largest change of the rows of a latency distribution, see drift(Long[], Long[])
+     *
+     * @param previous previous quantiles, or null
+     * @param current  current quantiles, or null if they are not measured
+     * @return largest relative change
+     */
+    private static double drift(Long[][] previous, Long[][] current) {
+        if (current == null) {
+            return 0.00;
+        }
+        if (previous == null || previous.length != current.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double drift = 0.00;
+        for (int i = 0; i < current.length; i++) {
+            if (previous[i] == null || previous[i].length != current[i].length) {
+                return Double.POSITIVE_INFINITY;
+            }
+            drift = Math.max(drift, drift(previous[i], current[i]));
+        }
+        return drift;
+    }
+
+    /**
+     * Computes the largest change of a latency relative to its previous value. A link that became silent or
+     * reachable counts as an infinite change.
+     *
+     * @param previous previous latencies, or null
+     * @param current  current latencies, or null if they are not measured
+     * @return largest relative change
+     */
+    public static double drift(Long[] previous, Long[] current) {
+        if (current == null) {
+            return 0.00;
+        }
+        if (previous == null || previous.length != current.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double drift = 0.00;
+        for (int i = 0; i < current.length; i++) {
+            long before = previous[i];
+            long now = current[i];
+            if ((before == Monitor.MISSING_VALUE) != (now == Monitor.MISSING_VALUE)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (before > 0) {
+                drift = Math.max(drift, (double) Math.abs(now - before) / before);
+            } else if (now != before) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return drift;
+    }
+
     /**
      * Converts Long array to byte array
      *
@@ -0,0 +1,114 @@
+package bftsmart.aware.tests;
+
+import bftsmart.aware.decisions.AwareConfiguration;
+import bftsmart.aware.decisions.BranchAndBound;
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.WeightConfiguration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests if the branch-and-bound search finds the same configuration as the exhaustive search
+ *
+ * @author cb
+ */
+public class BranchAndBoundTest {
+
+    /**
+     * Compares both searches on the AWS latencies and on random latency matrices
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+
+        Simulator simulator = new Simulator(null);
+        Random random = new Random(7);
+        int mismatches = 0;
+
+        long[][] aws = TestAWSLatencies.readMatrix("./data/cloudPing/cloudping.csv", 21, 21, ",");
+
+        for (int n = 5; n <= 12; n++) {
+            int f = (n - 1) / 3;
+            int delta = n - (3 * f + 1);
+            int u = 2 * f;
+            int[] replicaSet = new int[n];
+            for (int i = 0; i < n; i++) {
+                replicaSet[i] = i;
+            }
+
+            for (int run = 0; run < 5; run++) {
+                long[][] m = run == 0 ? subMatrix(aws, n) : generateTestM(n, random);
+                int currentLeader = random.nextInt(n);
+
+                long t1 = System.nanoTime();
+                AwareConfiguration expected = exhaustiveSearch(simulator, replicaSet, m, n, f, delta, u, currentLeader);
+                long t2 = System.nanoTime();
+                BranchAndBound branchAndBound = new BranchAndBound(simulator, null, null, null, null, replicaSet, m, m,
+                        n, f, delta, u, 10, true, true, currentLeader);
+                AwareConfiguration actual = branchAndBound.search();
+                long t3 = System.nanoTime();
+
+                boolean equal = expected.equals(actual) && expected.getPredictedLatency() == actual.getPredictedLatency();
+                if (!equal) {
+                    mismatches++;
+                }
+                System.out.println("n=" + n + " run " + run + (equal ? " OK " : " MISMATCH ") + actual
+                        + " | simulated " + branchAndBound.getExamined() + " configurations, pruned "
+                        + branchAndBound.getPruned() + " subtrees | exhaustive " + (t2 - t1) / 1000000.00
+                        + " ms, branch-and-bound " + (t3 - t2) / 1000000.00 + " ms");
+            }
+        }
+
+        System.out.println(mismatches + " mismatches");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Exhaustive search with the same selection rule as AwareController.computeBest
+     */
+    private static AwareConfiguration exhaustiveSearch(Simulator simulator, int[] replicaSet, long[][] m, int n, int f,
+                                                       int delta, int u, int currentLeader) {
+        List<AwareConfiguration> configs = new ArrayList<>();
+        for (WeightConfiguration w : WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet)) {
+            for (int leader : w.getR_max()) {
+                configs.add(new AwareConfiguration(w, leader,
+                        simulator.predictLatencyUnboxed(replicaSet, leader, w, m, m, n, f, delta, 10)));
+            }
+        }
+        configs.sort(Comparator.naturalOrder());
+        AwareConfiguration best = configs.get(0);
+        for (AwareConfiguration c : configs) {
+            if (c.getPredictedLatency() == best.getPredictedLatency() && c.getLeader() == currentLeader) {
+                return c;
+            }
+        }
+        return best;
+    }
+
+    private static long[][] subMatrix(long[][] m, int n) {
+        long[][] sub = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                sub[i][j] = Math.max(m[i][j], m[j][i]);
+            }
+        }
+        return sub;
+    }
+
+    private static long[][] generateTestM(int n, Random random) {
+        long[][] M = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                long latency = i == j ? 0 : random.nextInt(30000);
+                M[i][j] = latency;
+                M[j][i] = latency;
+            }
+        }
+        return M;
+    }
+}
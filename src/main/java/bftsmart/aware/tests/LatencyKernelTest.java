@@ -0,0 +1,88 @@
+package bftsmart.aware.tests;
+
+import bftsmart.aware.decisions.LatencyKernel;
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.WeightConfiguration;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests if the allocation-free latency kernel predicts exactly the same latencies as the simulator
+ *
+ * @author cb
+ */
+public class LatencyKernelTest {
+
+    /**
+     * Compares the predictions of both implementations for all weight configurations and leaders on random latency
+     * matrices. Small latency values are used on purpose, so that many votes arrive at the same time.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+
+        int[][] f_Delta = {
+                {1, 0}, {1, 1}, {1, 2}, {2, 1}, {2, 2}, {2, 3}, {3, 1}, {3, 2}
+        };
+        int runs = 20;
+
+        Simulator simulator = new Simulator(null);
+        Random random = new Random(42);
+
+        int examined = 0;
+        int mismatches = 0;
+
+        for (int[] fd : f_Delta) {
+            int f = fd[0];
+            int delta = fd[1];
+            int n = 3 * f + 1 + delta;
+            int u = 2 * f;
+
+            int[] replicaSet = new int[n];
+            for (int i = 0; i < n; i++) {
+                replicaSet[i] = i;
+            }
+
+            LatencyKernel kernel = new LatencyKernel(true, n);
+            List<WeightConfiguration> weightConfigs = WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet);
+
+            for (int r = 0; r < runs; r++) {
+                long[][] m = generateTestM(n, random, r % 2 == 0 ? 5 : 100000);
+
+                for (WeightConfiguration w : weightConfigs) {
+                    for (int leader : w.getR_max()) {
+                        examined++;
+                        long expected = simulator.predictLatency(replicaSet, leader, w, m, m, n, f, delta, 10);
+                        long actual = kernel.predictLatency(replicaSet, leader, w, m, m, n, f, delta, 10);
+
+                        if (expected != actual) {
+                            mismatches++;
+                            System.out.println("Mismatch for n=" + n + " f=" + f + " " + w + " with leader " + leader
+                                    + ": expected " + expected + " but was " + actual);
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.println("Examined " + examined + " configurations, " + mismatches + " mismatches");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static long[][] generateTestM(int n, Random random, int bound) {
+
+        long[][] M = new long[n][n];
+
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                long latency = i == j ? 0 : random.nextInt(bound);
+                M[i][j] = latency;
+                M[j][i] = latency;
+            }
+        }
+        return M;
+    }
+}
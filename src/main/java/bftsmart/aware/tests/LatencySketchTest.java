@@ -0,0 +1,78 @@
+package bftsmart.aware.tests;
+
+import bftsmart.aware.monitoring.LatencySketch;
+import bftsmart.aware.monitoring.Monitor;
+
+import java.util.Random;
+
+/**
+ * Tests the quantiles, the decay and the silence detection of the latency sketch
+ *
+ * @author cb
+ */
+public class LatencySketchTest {
+
+    private static final double ACCURACY = 0.01;
+    private static final long HORIZON = 30000000000L; // 30 s
+    private static final long MS = 1000000L;
+
+    public static void main(String[] args) {
+
+        Random random = new Random(7);
+        int failures = 0;
+        long now = 0L;
+
+        // Quantiles of latencies between 10 and 110 ms, measured every 10 ms
+        LatencySketch sketch = new LatencySketch(ACCURACY, HORIZON, now);
+        for (int i = 0; i < 500; i++) {
+            now += 10 * MS;
+            sketch.add(10 * MS + random.nextInt(100) * MS, now);
+        }
+        failures += check("median", near(sketch.quantile(0.50, now), 60 * MS, 0.05));
+        failures += check("maximum", near(sketch.quantile(1.00, now), 109 * MS, 2 * ACCURACY));
+
+        // Still reported shortly after the last measurement
+        failures += check("not silent after one horizon",
+                sketch.quantile(0.50, now + HORIZON) != Monitor.MISSING_VALUE);
+
+        // A crashed replica with hundreds of measurements is silent after a bounded time, not after minutes
+        failures += check("silent after three horizons",
+                sketch.quantile(0.50, now + 3 * HORIZON) == Monitor.MISSING_VALUE);
+
+        // Old latencies fade out once the link is measured again
+        now += 5 * HORIZON;
+        for (int i = 0; i < 500; i++) {
+            now += 100 * MS;
+            sketch.add(200 * MS, now);
+        }
+        failures += check("decay", near(sketch.quantile(0.50, now), 200 * MS, 2 * ACCURACY));
+
+        // An empty sketch is silent
+        LatencySketch empty = new LatencySketch(ACCURACY, HORIZON, now);
+        failures += check("empty", empty.quantile(0.50, now) == Monitor.MISSING_VALUE);
+
+        // Merging keeps the time of the last measurement of both sketches
+        LatencySketch stale = new LatencySketch(ACCURACY, HORIZON, 0L);
+        stale.add(50 * MS, 0L);
+        stale.merge(sketch);
+        failures += check("merge", stale.quantile(0.50, now) != Monitor.MISSING_VALUE);
+        empty.merge(stale);
+        failures += check("merge into empty", empty.quantile(0.50, now) != Monitor.MISSING_VALUE);
+
+        System.out.println(failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int check(String description, boolean ok) {
+        if (!ok) {
+            System.out.println("FAILED: " + description);
+        }
+        return ok ? 0 : 1;
+    }
+
+    private static boolean near(long value, long expected, double relativeError) {
+        return Math.abs(value - expected) <= relativeError * expected;
+    }
+}
@@ -0,0 +1,115 @@
+package bftsmart.aware.tests;
+
+import bftsmart.aware.monitoring.Measurements;
+import bftsmart.aware.monitoring.Monitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the legacy and the compact wire format of disseminated measurements
+ *
+ * @author cb
+ */
+public class MeasurementsEncodingTest {
+
+    public static void main(String[] args) throws Exception {
+
+        Random random = new Random(3);
+        int failures = 0;
+
+        for (int n : new int[]{4, 7, 21, 40}) {
+            Measurements first = randomMeasurements(n, random, null);
+            Measurements second = randomMeasurements(n, random, first);
+
+            // Legacy format is still readable
+            Measurements legacy = Measurements.fromBytes(first.toBytes(), null);
+            failures += check("legacy n=" + n, legacy != null
+                    && Arrays.equals(legacy.writeLatencies, first.writeLatencies)
+                    && Arrays.equals(legacy.proposeLatencies, first.proposeLatencies));
+
+            // Absolute compact encoding
+            byte[] absolute = first.toCompactBytes(null);
+            Measurements base = Measurements.fromBytes(absolute, null);
+            failures += check("compact n=" + n, base != null && quantizedEquals(base, first));
+            base.seq = 1;
+
+            // Delta encoding against the delivered base
+            byte[] delta = second.toCompactBytes(base);
+            Measurements decoded = Measurements.fromBytes(delta, base);
+            failures += check("delta n=" + n, decoded != null && quantizedEquals(decoded, second));
+
+            // A superseded base is rejected
+            Measurements superseded = Measurements.fromBytes(absolute, null);
+            superseded.seq = 2;
+            failures += check("outdated base n=" + n, Measurements.fromBytes(delta, superseded) == null);
+
+            // A replica that recovers a state decodes deltas against the bases transferred with it, and rejects them
+            // without these bases like a replica that did not deliver them
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            base.write(new DataOutputStream(state));
+            Measurements transferred = Measurements.read(new DataInputStream(new ByteArrayInputStream(
+                    state.toByteArray())));
+            Measurements recovered = Measurements.fromBytes(delta, transferred);
+            failures += check("recovery n=" + n, transferred.seq == base.seq && recovered != null
+                    && Arrays.equals(recovered.writeLatencies, decoded.writeLatencies)
+                    && Arrays.equals(recovered.proposeLatencies, decoded.proposeLatencies));
+            failures += check("recovery without state n=" + n, Measurements.fromBytes(delta, null) == null);
+
+            // Cut off or foreign vectors decode, but are not complete
+            byte[] legacyBytes = first.toBytes();
+            failures += check("complete n=" + n, legacy.isComplete(n) && decoded.isComplete(n));
+            failures += check("cut off n=" + n,
+                    !Measurements.fromBytes(Arrays.copyOf(legacyBytes, legacyBytes.length / 2), null).isComplete(n));
+            failures += check("other size n=" + n, !legacy.isComplete(n + 1));
+
+            System.out.println("n=" + n + ": legacy " + second.toBytes().length + " bytes, compact "
+                    + second.toCompactBytes(null).length + " bytes, delta " + delta.length + " bytes");
+        }
+
+        System.out.println(failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int check(String description, boolean ok) {
+        if (!ok) {
+            System.out.println("FAILED: " + description);
+        }
+        return ok ? 0 : 1;
+    }
+
+    private static boolean quantizedEquals(Measurements decoded, Measurements original) {
+        for (int i = 0; i < original.n; i++) {
+            if (decoded.writeLatencies[i] != Math.round(original.writeLatencies[i] / 1000.00) * 1000
+                    || decoded.proposeLatencies[i] != Math.round(original.proposeLatencies[i] / 1000.00) * 1000) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Latencies between 10 and 300 ms, which drift by a few ms between two measurements, and a silent replica
+     */
+    private static Measurements randomMeasurements(int n, Random random, Measurements previous) {
+        Long[] write = new Long[n];
+        Long[] propose = new Long[n];
+        for (int i = 0; i < n; i++) {
+            write[i] = previous != null ? previous.writeLatencies[i] + random.nextInt(4000000) - 2000000
+                    : 10000000L + random.nextInt(290000000);
+            propose[i] = previous != null ? previous.proposeLatencies[i] + random.nextInt(4000000) - 2000000
+                    : 10000000L + random.nextInt(290000000);
+        }
+        write[0] = 0L;
+        propose[0] = 0L;
+        write[n - 1] = Monitor.MISSING_VALUE;
+        propose[n - 1] = Monitor.MISSING_VALUE;
+        return new Measurements(n, write, propose);
+    }
+}
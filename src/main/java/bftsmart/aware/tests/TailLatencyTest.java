@@ -0,0 +1,148 @@
+package bftsmart.aware.tests;
+
+import bftsmart.aware.decisions.AwareConfiguration;
+import bftsmart.aware.decisions.BranchAndBound;
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.TailLatencyModel;
+import bftsmart.aware.decisions.WeightConfiguration;
+import bftsmart.aware.monitoring.Monitor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the Monte-Carlo prediction of tail latencies
+ *
+ * @author cb
+ */
+public class TailLatencyTest {
+
+    /**
+     * (1) With distributions that only contain the median, every percentile equals the latency of a single simulated
+     * consensus instance. (2) The prediction is deterministic for a given seed. (3) The branch-and-bound search finds
+     * the same configuration as the exhaustive search when tail latencies are predicted.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+
+        Simulator simulator = new Simulator(null);
+        Random random = new Random(11);
+        double[] levels = Monitor.QUANTILE_LEVELS;
+        int failures = 0;
+
+        for (int n = 5; n <= 9; n++) {
+            int f = (n - 1) / 3;
+            int delta = n - (3 * f + 1);
+            int u = 2 * f;
+            int[] replicaSet = new int[n];
+            for (int i = 0; i < n; i++) {
+                replicaSet[i] = i;
+            }
+            List<WeightConfiguration> weightConfigs = WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet);
+
+            // (1) Degenerate distributions
+            long[][] m = generateTestM(n, random);
+            long[][][] constant = new long[n][n][levels.length];
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < n; j++)
+                    for (int k = 0; k < levels.length; k++)
+                        constant[i][j][k] = m[i][j];
+
+            TailLatencyModel degenerate = new TailLatencyModel(99, 20, n, levels, constant, constant, n);
+            for (WeightConfiguration w : weightConfigs) {
+                for (int leader : w.getR_max()) {
+                    long expected = simulator.predictLatencyUnboxed(replicaSet, leader, w, m, m, n, f, delta, 1);
+                    long actual = degenerate.predictLatency(simulator, replicaSet, leader, w, n, f, delta);
+                    if (expected != actual) {
+                        failures++;
+                        System.out.println("n=" + n + " " + w + " leader " + leader + ": expected " + expected
+                                + " but was " + actual);
+                    }
+                }
+            }
+
+            // (2) and (3) Random distributions
+            long[][][] quantiles = generateTestQuantiles(n, levels.length, random);
+            for (double percentile : new double[]{50, 95, 99}) {
+                TailLatencyModel tail = new TailLatencyModel(percentile, 50, 4711, levels, quantiles, quantiles, n);
+                TailLatencyModel again = new TailLatencyModel(percentile, 50, 4711, levels, quantiles, quantiles, n);
+                int currentLeader = random.nextInt(n);
+
+                AwareConfiguration expected = exhaustiveSearch(simulator, tail, replicaSet, n, f, delta, u,
+                        currentLeader);
+                BranchAndBound branchAndBound = new BranchAndBound(simulator, null, tail, null, null, replicaSet,
+                        tail.getProposeSample(0), tail.getWriteSample(0), n, f, delta, u, 1, true, true,
+                        currentLeader);
+                AwareConfiguration actual = branchAndBound.search();
+
+                boolean deterministic = again.predictLatency(simulator, replicaSet, expected.getLeader(),
+                        expected.getWeightConfiguration(), n, f, delta) == expected.getPredictedLatency();
+                boolean equal = expected.equals(actual)
+                        && expected.getPredictedLatency() == actual.getPredictedLatency();
+                if (!deterministic || !equal) {
+                    failures++;
+                }
+                System.out.println("n=" + n + " p" + percentile + (equal && deterministic ? " OK " : " FAILED ")
+                        + actual + " | simulated " + branchAndBound.getExamined() + " configurations, pruned "
+                        + branchAndBound.getPruned() + " subtrees");
+            }
+        }
+
+        System.out.println(failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Exhaustive search with the same selection rule as AwareController.computeBest
+     */
+    private static AwareConfiguration exhaustiveSearch(Simulator simulator, TailLatencyModel tail, int[] replicaSet,
+                                                       int n, int f, int delta, int u, int currentLeader) {
+        List<AwareConfiguration> configs = new ArrayList<>();
+        for (WeightConfiguration w : WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet)) {
+            for (int leader : w.getR_max()) {
+                configs.add(new AwareConfiguration(w, leader,
+                        tail.predictLatency(simulator, replicaSet, leader, w, n, f, delta)));
+            }
+        }
+        configs.sort(Comparator.naturalOrder());
+        AwareConfiguration best = configs.get(0);
+        for (AwareConfiguration c : configs) {
+            if (c.getPredictedLatency() == best.getPredictedLatency() && c.getLeader() == currentLeader) {
+                return c;
+            }
+        }
+        return best;
+    }
+
+    private static long[][] generateTestM(int n, Random random) {
+        long[][] M = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                long latency = i == j ? 0 : random.nextInt(30000);
+                M[i][j] = latency;
+                M[j][i] = latency;
+            }
+        }
+        return M;
+    }
+
+    private static long[][][] generateTestQuantiles(int n, int k, Random random) {
+        long[][][] Q = new long[n][n][k];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                long latency = random.nextInt(30000);
+                for (int l = 0; l < k; l++) {
+                    latency += random.nextInt(l < k - 2 ? 2000 : 20000); // heavy tail
+                    Q[i][j][l] = latency;
+                    Q[j][i][l] = latency;
+                }
+            }
+        }
+        return Q;
+    }
+}
@@ -15,6 +15,7 @@ limitations under the License.
 */
 package bftsmart.clientsmanagement;
 
+import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
@@ -34,7 +35,7 @@ public class ClientData {
     ReentrantLock clientLock = new ReentrantLock();
 
     private int clientId;
-    //private PublicKey publicKey = null;
+    private PublicKey publicKey = null;
 
     private int session = -1;
 
@@ -47,6 +48,9 @@ public class ClientData {
     //anb: new code to deal with client requests that arrive after their execution
     private RequestList orderedRequests = new RequestList(5);
 
+    // Pending requests not proposed yet, guarded by clientLock
+    private int unproposed = 0;
+
     private Signature signatureVerificator = null;
     
     /**
@@ -58,6 +62,7 @@ public class ClientData {
      */
     public ClientData(int clientId, PublicKey publicKey) {
         this.clientId = clientId;
+        this.publicKey = publicKey;
         if(publicKey != null) {
             try {
                 signatureVerificator = TOMUtil.getSigEngine();
@@ -97,6 +102,14 @@ public class ClientData {
         return lastMessageDelivered;
     }
 
+    int getUnproposed() {
+        return unproposed;
+    }
+
+    void addUnproposed(int delta) {
+        unproposed += delta;
+    }
+
     public void setLastMessageReceived(int lastMessageReceived) {
         this.lastMessageReceived = lastMessageReceived;
     }
@@ -124,6 +137,27 @@ public class ClientData {
         return false;
     }
 
+    /**
+     * Verifies a signature of this client with the given engine instead of the verificator of this object, so that
+     * several threads can verify signatures of the same client concurrently and without holding its lock.
+     *
+     * @param engine signature engine owned by the calling thread
+     * @param message the signed message
+     * @param signature the signature to be verified
+     * @return true if the signature is valid, false otherwise
+     */
+    public boolean verifySignature(Signature engine, byte[] message, byte[] signature) {
+        if (engine != null && publicKey != null) {
+            try {
+                engine.initVerify(publicKey);
+                return TOMUtil.verifySignature(engine, message, signature);
+            } catch (InvalidKeyException | SignatureException ex) {
+                logger.error("Failed to verify signature", ex);
+            }
+        }
+        return false;
+    }
+
     public boolean removeOrderedRequest(TOMMessage request) {
         if(pendingRequests.remove(request)) {
             //anb: new code to deal with client requests that arrive after their execution
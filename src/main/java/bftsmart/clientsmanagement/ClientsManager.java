@@ -16,9 +16,13 @@ limitations under the License.
 package bftsmart.clientsmanagement;
 
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import bftsmart.communication.ServerCommunicationSystem;
 import bftsmart.reconfiguration.ServerViewController;
@@ -29,10 +33,7 @@ import bftsmart.tom.util.TOMUtil;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
-import java.util.List;
 import java.util.Random;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,17 +48,37 @@ public class ClientsManager {
 
     private ServerViewController controller;
     private RequestsTimer timer;
-    private HashMap<Integer, ClientData> clientsData = new HashMap<Integer, ClientData>();
+    private ConcurrentHashMap<Integer, ClientData> clientsData = new ConcurrentHashMap<Integer, ClientData>();
+
+    // Pending requests this replica has not proposed yet, and the clients that have such requests
+    private final AtomicInteger unproposed = new AtomicInteger();
+    private final ConcurrentSkipListSet<Integer> readyClients = new ConcurrentSkipListSet<>();
+
+    // Client served last, where the next batch starts if batches are fair
+    private volatile int cursor = Integer.MIN_VALUE;
     private RequestVerifier verifier;
     
     //Used when the intention is to perform benchmarking with signature verification, but
     //without having to make the clients create one first. Useful to optimize resources
     private byte[] benchMsg = null;
     private byte[] benchSig = null;
-    private HashMap<String,Signature> benchEngines = new HashMap<>();
+    private ConcurrentHashMap<String,Signature> benchEngines = new ConcurrentHashMap<>();
+
+    // Signature engines of the threads verifying client signatures
+    private final ThreadLocal<Signature> verifyEngines = ThreadLocal.withInitial(() -> {
+        try {
+            return TOMUtil.getSigEngine();
+        } catch (NoSuchAlgorithmException ex) {
+            logger.error("Signature error.", ex);
+            return null;
+        }
+    });
     
     private ReentrantLock clientsLock = new ReentrantLock();
 
+    // Number of requests received from clients and added to the pending requests, used to estimate the arrival rate
+    private final AtomicLong arrivals = new AtomicLong();
+
     public ClientsManager(ServerViewController controller, RequestsTimer timer, RequestVerifier verifier) {
         this.controller = controller;
         this.timer = timer;
@@ -78,25 +99,21 @@ public class ClientsManager {
      * @return the ClientData stored on the manager
      */
     public ClientData getClientData(int clientId) {
-        clientsLock.lock();
-        /******* BEGIN CLIENTS CRITICAL SECTION ******/
         ClientData clientData = clientsData.get(clientId);
 
         if (clientData == null) {
-            logger.debug("Creating new client data, client id=" + clientId);
-
-            //******* EDUARDO BEGIN **************//
-            clientData = new ClientData(clientId,
-                    (controller.getStaticConf().getUseSignatures() == 1)
-                    ? controller.getStaticConf().getPublicKey(clientId)
-                    : null);
-            //******* EDUARDO END **************//
-            clientsData.put(clientId, clientData);
+            clientData = clientsData.computeIfAbsent(clientId, id -> {
+                logger.debug("Creating new client data, client id=" + id);
+
+                //******* EDUARDO BEGIN **************//
+                return new ClientData(id,
+                        (controller.getStaticConf().getUseSignatures() == 1)
+                        ? controller.getStaticConf().getPublicKey(id)
+                        : null);
+                //******* EDUARDO END **************//
+            });
         }
 
-        /******* END CLIENTS CRITICAL SECTION ******/
-        clientsLock.unlock();
-
         return clientData;
     }
 
@@ -107,68 +124,113 @@ public class ClientsManager {
      * @return the set of all pending requests of this system
      */
     public RequestList getPendingRequests() {
-        RequestList allReq = new RequestList();
-        
-        clientsLock.lock();
-        /******* BEGIN CLIENTS CRITICAL SECTION ******/
-        
-        List<Entry<Integer, ClientData>> clientsEntryList = new ArrayList<>(clientsData.entrySet().size());
-        clientsEntryList.addAll(clientsData.entrySet());
-        
-        if (controller.getStaticConf().getFairBatch()) // ensure fairness
-            Collections.shuffle(clientsEntryList);
-
-        logger.debug("Number of active clients: {}", clientsEntryList.size());
-        
-        for (int i = 0; true; i++) {
-                        
-            Iterator<Entry<Integer, ClientData>> it = clientsEntryList.iterator();
-            int noMoreMessages = 0;
-            
-            logger.debug("Fetching requests with internal index {}", i);
-            
-            while (it.hasNext()
-                    && allReq.size() < controller.getStaticConf().getMaxBatchSize()
-                    && noMoreMessages < clientsEntryList.size()) {
-
-                ClientData clientData = it.next().getValue();
-                RequestList clientPendingRequests = clientData.getPendingRequests();
+        return getPendingRequests(controller.getStaticConf().getMaxBatchSize());
+    }
 
-                clientData.clientLock.lock();
+    /**
+     * Get pending requests in a fair way, see getPendingRequests()
+     *
+     * @param maxBatchSize max number of requests
+     * @return the set of all pending requests of this system
+     */
+    public RequestList getPendingRequests(int maxBatchSize) {
+        RequestList allReq = new RequestList();
 
-                logger.debug("Number of pending requests for client {}: {}.", clientData.getClientId(), clientPendingRequests.size());
+        logger.debug("Number of clients with pending requests: {}", readyClients.size());
+
+        // Take one request from each client per round, starting with the lowest client ID or, to ensure fairness,
+        // after the client served last
+        int taken;
+        do {
+            if (controller.getStaticConf().getFairBatch()) {
+                int cursor = this.cursor;
+                NavigableSet<Integer> after = readyClients.tailSet(cursor, false);
+                NavigableSet<Integer> upTo = readyClients.headSet(cursor, true);
+                taken = takeRound(after, allReq, maxBatchSize) + takeRound(upTo, allReq, maxBatchSize);
+            } else {
+                taken = takeRound(readyClients, allReq, maxBatchSize);
+            }
+        } while (taken > 0 && allReq.size() < maxBatchSize);
 
-                /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
-                TOMMessage request = (clientPendingRequests.size() > i) ? clientPendingRequests.get(i) : null;
+        return allReq;
+    }
 
-                /******* END CLIENTDATA CRITICAL SECTION ******/
-                clientData.clientLock.unlock();
+    /**
+     * Takes the next request not yet proposed from each of the given clients
+     *
+     * @param clients      IDs of clients with pending requests
+     * @param allReq       list to which the requests are added
+     * @param maxBatchSize max number of requests in the list
+     * @return number of requests taken
+     */
+    private int takeRound(Iterable<Integer> clients, RequestList allReq, int maxBatchSize) {
+        int taken = 0;
+        for (Integer clientId : clients) {
+            if (allReq.size() >= maxBatchSize) {
+                break;
+            }
+            ClientData clientData = clientsData.get(clientId);
+            if (clientData == null) {
+                readyClients.remove(clientId);
+                continue;
+            }
 
-                if (request != null) {
-                    if(!request.alreadyProposed) {
-                        
-                        logger.debug("Selected request with sequence number {} from client {}", request.getSequence(), request.getSender());
-                        
-                        //this client have pending message
-                        request.alreadyProposed = true;
-                        allReq.addLast(request);
-                    }
-                } else {
-                    //this client don't have more pending requests
-                    noMoreMessages++;
+            clientData.clientLock.lock();
+            /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
+            TOMMessage request = null;
+            for (TOMMessage pending : clientData.getPendingRequests()) {
+                if (!pending.alreadyProposed) {
+                    request = pending;
+                    break;
                 }
             }
-            
-            if(allReq.size() == controller.getStaticConf().getMaxBatchSize() ||
-                    noMoreMessages == clientsEntryList.size()) {
-                
-                break;
+            if (request != null) {
+                logger.debug("Selected request with sequence number {} from client {}", request.getSequence(), request.getSender());
+
+                request.alreadyProposed = true;
+                addUnproposed(clientData, -1);
+            } else {
+                readyClients.remove(clientId);
+            }
+            /******* END CLIENTDATA CRITICAL SECTION ******/
+            clientData.clientLock.unlock();
+
+            if (request != null) {
+                allReq.addLast(request);
+                cursor = clientId;
+                taken++;
             }
         }
-        
-        /******* END CLIENTS CRITICAL SECTION ******/
-        clientsLock.unlock();
-        return allReq;
+        return taken;
+    }
+
+    /**
+     * Accounts for requests of a client that became (or are no longer) pending and not yet proposed. Must be called
+     * while holding the lock of the client.
+     *
+     * @param clientData client
+     * @param delta      change of the number of such requests
+     */
+    private void addUnproposed(ClientData clientData, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        clientData.addUnproposed(delta);
+        unproposed.addAndGet(delta);
+        if (clientData.getUnproposed() > 0) {
+            readyClients.add(clientData.getClientId());
+        } else {
+            readyClients.remove(clientData.getClientId());
+        }
+    }
+
+    /**
+     * Number of requests received from clients so far
+     *
+     * @return number of requests
+     */
+    public long getArrivals() {
+        return arrivals.get();
     }
 
     /**
@@ -178,32 +240,7 @@ public class ClientsManager {
      * @return true if there are some pending requests and false otherwise
      */
     public boolean havePendingRequests() {
-        boolean havePending = false;
-
-        clientsLock.lock();
-        /******* BEGIN CLIENTS CRITICAL SECTION ******/        
-        
-        Iterator<Entry<Integer, ClientData>> it = clientsData.entrySet().iterator();
-
-        while (it.hasNext() && !havePending) {
-            ClientData clientData = it.next().getValue();
-            
-            clientData.clientLock.lock();
-            RequestList reqs = clientData.getPendingRequests();
-            if (!reqs.isEmpty()) {
-                for(TOMMessage msg:reqs) {
-                    if(!msg.alreadyProposed) {
-                        havePending = true;
-                        break;
-                    }
-                }
-            }
-            clientData.clientLock.unlock();
-        }
-
-        /******* END CLIENTS CRITICAL SECTION ******/
-        clientsLock.unlock();
-        return havePending;
+        return unproposed.get() > 0;
     }
     
     /**
@@ -211,31 +248,7 @@ public class ClientsManager {
      * @return Number of pending requests
      */
     public int countPendingRequests() {
-        int count = 0;
-
-        clientsLock.lock();
-        /******* BEGIN CLIENTS CRITICAL SECTION ******/        
-        
-        Iterator<Entry<Integer, ClientData>> it = clientsData.entrySet().iterator();
-
-        while (it.hasNext()) {
-            ClientData clientData = it.next().getValue();
-            
-            clientData.clientLock.lock();
-            RequestList reqs = clientData.getPendingRequests();
-            if (!reqs.isEmpty()) {
-                for(TOMMessage msg:reqs) {
-                    if(!msg.alreadyProposed) {
-                        count++;
-                    }
-                }
-            }
-            clientData.clientLock.unlock();
-        }
-
-        /******* END CLIENTS CRITICAL SECTION ******/
-        clientsLock.unlock();
-        return count;
+        return unproposed.get();
     }
 
     /**
@@ -271,6 +284,76 @@ public class ClientsManager {
         return requestReceived(request, fromClient, null);
     }
 
+    /**
+     * Validates a request proposed by the leader before requestReceived accounts
+     * for it, i.e., verifies its signature and its external validity. This does
+     * not depend on the order of the requests and holds no lock while verifying,
+     * hence the requests of a batch can be validated in parallel. A request that
+     * is already pending with the same content, which was validated when it was
+     * received from the client, is not verified again.
+     *
+     * @param request the proposed request
+     *
+     * @return true if the request is valid, which is also stored in request.isValid
+     */
+    public boolean verifyRequest(TOMMessage request) {
+        ClientData clientData = getClientData(request.getSender());
+        boolean isValid = false;
+
+        clientData.clientLock.lock();
+        /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
+        int index = clientData.getPendingRequests().indexOf(request);
+        if (index >= 0) {
+            TOMMessage received = clientData.getPendingRequests().get(index);
+            isValid = received.isValid && received.serializedMessage != null
+                    && Arrays.equals(received.serializedMessage, request.serializedMessage);
+        }
+        /******* END CLIENTDATA CRITICAL SECTION ******/
+        clientData.clientLock.unlock();
+
+        if (!isValid) {
+            isValid = validate(clientData, request);
+        }
+        request.isValid = isValid;
+        return isValid;
+    }
+
+    /**
+     * Enforces the "external validity" property, i.e, verifies if the request
+     * is valid in accordance to the application semantics and not an erroneous
+     * request sent by a Byzantine leader, and verifies its signature. Does not
+     * need the lock of the client.
+     *
+     * @param clientData client that sent the request
+     * @param request the request
+     *
+     * @return true if the request is valid
+     */
+    private boolean validate(ClientData clientData, TOMMessage request) {
+        if (controller.getStaticConf().isBFT() && !verifier.isValidRequest(request)) {
+            return false;
+        }
+
+        Signature engine = benchEngines.get(Thread.currentThread().getName());
+
+        if (engine == null && benchMsg != null) {
+
+            try {
+                engine = TOMUtil.getSigEngine();
+                engine.initVerify(controller.getStaticConf().getPublicKey());
+
+                benchEngines.put(Thread.currentThread().getName(), engine);
+            } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+                logger.error("Signature error.",ex);
+                engine = null;
+            }
+        }
+
+        return (engine != null && benchSig != null && TOMUtil.verifySigForBenchmark(engine, benchMsg, benchSig)) || !request.signed ||
+                clientData.verifySignature(verifyEngines.get(), request.serializedMessage,
+                        request.serializedMessageSignature);
+    }
+
     /**
      * Notifies the ClientsManager that a new request from a client arrived.
      * This method updates the ClientData of the client request.getSender().
@@ -334,37 +417,15 @@ public class ClientsManager {
             clientData.setLastMessageDelivered(-1);
             clientData.getOrderedRequests().clear();
             clientData.getPendingRequests().clear();
+            addUnproposed(clientData, -clientData.getUnproposed());
         }
 
         if ((clientData.getLastMessageReceived() == -1) || //first message received or new session (see above)
                 (clientData.getLastMessageReceived() + 1 == request.getSequence()) || //message received is the expected
                 ((request.getSequence() > clientData.getLastMessageReceived()) && !fromClient)) {
 
-            //enforce the "external validity" property, i.e, verify if the
-            //requests are valid in accordance to the application semantics
-            //and not an erroneous requests sent by a Byzantine leader.
-            boolean isValid = (!controller.getStaticConf().isBFT() || verifier.isValidRequest(request));
-
-            Signature engine = benchEngines.get(Thread.currentThread().getName());
-            
-            if (engine == null) {
-                
-                try {
-                    engine = TOMUtil.getSigEngine();
-                    engine.initVerify(controller.getStaticConf().getPublicKey());
-                    
-                    benchEngines.put(Thread.currentThread().getName(), engine);
-                } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
-                    logger.error("Signature error.",ex);
-                    engine = null;
-                }
-            }
-            
-            //it is a valid new message and I have to verify it's signature
-            if (isValid &&
-                    ((engine != null && benchMsg != null && benchSig != null && TOMUtil.verifySigForBenchmark(engine, benchMsg, benchSig)) || !request.signed ||
-                    clientData.verifySignature(request.serializedMessage,
-                            request.serializedMessageSignature))) {
+            //a request proposed by the leader may have been validated already by verifyRequest
+            if (request.isValid || validate(clientData, request)) {
                 
                 logger.debug("Message from client {} is valid", clientData.getClientId());
 
@@ -372,7 +433,14 @@ public class ClientsManager {
                 //insert it in the pending requests of this client
 
                 request.recvFromClient = fromClient;
+                request.isValid = true;
                 clientData.getPendingRequests().add(request); 
+                if (!request.alreadyProposed) {
+                    addUnproposed(clientData, 1);
+                }
+                if (fromClient) {
+                    arrivals.incrementAndGet();
+                }
                 clientData.setLastMessageReceived(request.getSequence());
                 clientData.setLastMessageReceivedTime(request.receptionTime);
 
@@ -430,13 +498,11 @@ public class ClientsManager {
      * @param requests the array of requests to account as ordered
      */
     public void requestsOrdered(TOMMessage[] requests) {
-        clientsLock.lock();
         logger.debug("Updating client manager");
         for (TOMMessage request : requests) {
             requestOrdered(request);
         }
         logger.debug("Finished updating client manager");
-        clientsLock.unlock();
     }
 
     /**
@@ -455,6 +521,10 @@ public class ClientsManager {
 
         clientData.clientLock.lock();
         /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
+        int index = clientData.getPendingRequests().indexOf(request);
+        if (index >= 0 && !clientData.getPendingRequests().get(index).alreadyProposed) {
+            addUnproposed(clientData, -1);
+        }
         if (!clientData.removeOrderedRequest(request)) {
             logger.debug("Request " + request + " does not exist in pending requests");
         }
@@ -471,6 +541,8 @@ public class ClientsManager {
     public void clear() {
         clientsLock.lock();
         clientsData.clear();
+        readyClients.clear();
+        unproposed.set(0);
         clientsLock.unlock();
         logger.info("ClientsManager cleared.");
 
@@ -27,6 +27,7 @@ import bftsmart.communication.server.ServersCommunicationLayer;
 import bftsmart.consensus.roles.Acceptor;
 import bftsmart.aware.monitoring.MessageLatencyMonitor;
 import bftsmart.aware.monitoring.Monitor;
+import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.ServiceReplica;
 import bftsmart.tom.core.TOMLayer;
@@ -68,6 +69,9 @@ public class ServerCommunicationSystem extends Thread {
 
         inQueue = new LinkedBlockingQueue<SystemMessage>(controller.getStaticConf().getInQueueSize());
 
+        /** AWARE **/
+        ConsensusMessage.setPiggybackMeasurements(controller.getStaticConf().isPiggybackMeasurements());
+
         serversConn = new ServersCommunicationLayer(controller, inQueue, replica);
 
         /** AWARE **/
@@ -0,0 +1,148 @@
+package bftsmart.communication.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bftsmart.communication.SystemMessage;
+
+/**
+ * A message as it is written to the socket of a ServerConnection: LENGTH(int) + MESSAGE(byte[LENGTH]) + 0(byte).
+ *
+ * A message sent to several replicas is serialized into a single frame, which is shared by the out queues of all
+ * connections, instead of being copied into a frame of its own for every connection. The buffer of a frame may be
+ * longer than the frame, so that messages can be serialized in place without trimming the buffer afterwards.
+ *
+ * Frames are reference-counted: whoever creates a frame holds one reference, every out queue holds another one until
+ * the frame is written or discarded. Large buffers (proposals) are returned to a pool once the last reference is
+ * released and reused for later frames. A reference that is never released only means that its buffer is left to the
+ * garbage collector.
+ *
+ * @author cb
+ */
+final class Frame {
+
+    static final int HEADER = Integer.BYTES;
+    static final int TRAILER = 1;
+
+    private static final int OVERHEAD = 256; // bytes expected besides the payload of a message
+    private static final int MIN_POOLED = 16; // buffers of at least 2^16 bytes are pooled
+    private static final int MAX_POOLED = 26; // up to 2^26 bytes
+    private static final int POOL_SIZE = 8; // buffers per size class
+
+    // pool[c] holds buffers of at least 2^c bytes
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ArrayBlockingQueue<byte[]>[] pool = new ArrayBlockingQueue[MAX_POOLED + 1];
+
+    static {
+        for (int c = MIN_POOLED; c <= MAX_POOLED; c++) {
+            pool[c] = new ArrayBlockingQueue<>(POOL_SIZE);
+        }
+    }
+
+    private final byte[] buffer;
+    private final int size;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Frame(byte[] buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * Serializes a message into a frame
+     *
+     * @param sm          message
+     * @param payloadHint number of bytes of the message expected to be large, e.g., the value of a PROPOSE
+     * @return frame, with a reference held by the caller
+     * @throws IOException if the message could not be serialized
+     */
+    static Frame serialize(SystemMessage sm, int payloadHint) throws IOException {
+        FrameOutputStream out = new FrameOutputStream(acquire(HEADER + payloadHint + OVERHEAD + TRAILER));
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(sm);
+        oos.flush();
+        return out.toFrame();
+    }
+
+    /**
+     * Copies a serialized message into a frame
+     *
+     * @param data message
+     * @return frame, with a reference held by the caller
+     */
+    static Frame wrap(byte[] data) {
+        FrameOutputStream out = new FrameOutputStream(acquire(HEADER + data.length + TRAILER));
+        out.write(data, 0, data.length);
+        return out.toFrame();
+    }
+
+    /**
+     * @return buffer holding the frame from its beginning
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return number of bytes of the frame, including the length and the trailer
+     */
+    int getSize() {
+        return size;
+    }
+
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            recycle(buffer);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Frame[" + (size - HEADER - TRAILER) + " bytes]";
+    }
+
+    private static byte[] acquire(int capacity) {
+        int c = Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1); // 2^c >= capacity
+        if (c < MIN_POOLED || c > MAX_POOLED) {
+            return new byte[capacity];
+        }
+        byte[] buffer = pool[c].poll();
+        return buffer != null ? buffer : new byte[1 << c];
+    }
+
+    private static void recycle(byte[] buffer) {
+        int c = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(buffer.length); // 2^c <= length
+        if (c >= MIN_POOLED && c <= MAX_POOLED) {
+            pool[c].offer(buffer);
+        }
+    }
+
+    /**
+     * Writes a frame into a given buffer, leaving room for its length at the beginning
+     */
+    private static class FrameOutputStream extends ByteArrayOutputStream {
+
+        FrameOutputStream(byte[] buffer) {
+            super(0);
+            this.buf = buffer;
+            this.count = HEADER;
+        }
+
+        Frame toFrame() {
+            write(0);
+            int length = count - HEADER - TRAILER;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            return new Frame(buf, count);
+        }
+    }
+}
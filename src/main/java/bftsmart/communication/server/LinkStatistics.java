@@ -0,0 +1,154 @@
+package bftsmart.communication.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of the connection to one remote replica.
+ *
+ * The counters are updated by the sender and receiver threads of a ServerConnection without locking. They are read
+ * in intervals: every call to sample() returns the traffic since the previous call, so it is meant to be called
+ * periodically by a single consumer, e.g., the monitor that estimates link bandwidths.
+ *
+ * @author cb
+ */
+public class LinkStatistics {
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong writeStall = new AtomicLong(); // ns spent in socket writes
+    private final AtomicLong discarded = new AtomicLong(); // frames dropped because the out queue was full
+    private final AtomicInteger queueHighWater = new AtomicInteger(); // since the last sample
+
+    // Counters at the last sample
+    private long lastTime = System.nanoTime();
+    private long lastBytesSent, lastFramesSent, lastBytesReceived, lastFramesReceived, lastWriteStall, lastDiscarded;
+
+    void onEnqueued(int queueDepth) {
+        if (queueDepth > queueHighWater.get()) {
+            queueHighWater.accumulateAndGet(queueDepth, Math::max);
+        }
+    }
+
+    void onDiscarded() {
+        discarded.incrementAndGet();
+    }
+
+    void onWritten(int bytes, long stall) {
+        bytesSent.addAndGet(bytes);
+        framesSent.incrementAndGet();
+        writeStall.addAndGet(stall);
+    }
+
+    void onReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+        framesReceived.incrementAndGet();
+    }
+
+    /**
+     * Closes the current interval
+     *
+     * @return the traffic since the previous call
+     */
+    public synchronized Sample sample() {
+        long now = System.nanoTime();
+        long sent = bytesSent.get(), frames = framesSent.get(), received = bytesReceived.get(),
+                framesIn = framesReceived.get(), stall = writeStall.get(), dropped = discarded.get();
+
+        Sample sample = new Sample(Math.max(1, now - lastTime), sent - lastBytesSent, frames - lastFramesSent,
+                received - lastBytesReceived, framesIn - lastFramesReceived, stall - lastWriteStall,
+                dropped - lastDiscarded, queueHighWater.getAndSet(0));
+
+        lastTime = now;
+        lastBytesSent = sent;
+        lastFramesSent = frames;
+        lastBytesReceived = received;
+        lastFramesReceived = framesIn;
+        lastWriteStall = stall;
+        lastDiscarded = dropped;
+        return sample;
+    }
+
+    /**
+     * Traffic of a link during one interval
+     */
+    public static class Sample {
+
+        private final long interval;
+        private final long bytesSent;
+        private final long framesSent;
+        private final long bytesReceived;
+        private final long framesReceived;
+        private final long writeStall;
+        private final long discarded;
+        private final int queueHighWater;
+
+        private Sample(long interval, long bytesSent, long framesSent, long bytesReceived, long framesReceived,
+                       long writeStall, long discarded, int queueHighWater) {
+            this.interval = interval;
+            this.bytesSent = bytesSent;
+            this.framesSent = framesSent;
+            this.bytesReceived = bytesReceived;
+            this.framesReceived = framesReceived;
+            this.writeStall = writeStall;
+            this.discarded = discarded;
+            this.queueHighWater = queueHighWater;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public double getBytesSentPerSecond() {
+            return bytesSent * 1e9 / interval;
+        }
+
+        public double getFramesSentPerSecond() {
+            return framesSent * 1e9 / interval;
+        }
+
+        public double getBytesReceivedPerSecond() {
+            return bytesReceived * 1e9 / interval;
+        }
+
+        public double getFramesReceivedPerSecond() {
+            return framesReceived * 1e9 / interval;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getWriteStall() {
+            return writeStall;
+        }
+
+        /**
+         * Fraction of the interval the sender spent blocked in socket writes, close to 1 if the link is saturated
+         *
+         * @return fraction between 0 and 1
+         */
+        public double getStallFraction() {
+            return Math.min(1.00, (double) writeStall / interval);
+        }
+
+        public long getDiscarded() {
+            return discarded;
+        }
+
+        public int getQueueHighWater() {
+            return queueHighWater;
+        }
+
+        @Override
+        public String toString() {
+            return "sent " + Math.round(getBytesSentPerSecond()) + " B/s (" + Math.round(getFramesSentPerSecond())
+                    + " frames/s), received " + Math.round(getBytesReceivedPerSecond()) + " B/s ("
+                    + Math.round(getFramesReceivedPerSecond()) + " frames/s), write stall "
+                    + Math.round(getStallFraction() * 10000) / 100.00 + " %, queue high-water " + queueHighWater
+                    + ", discarded " + discarded;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
@@ -77,7 +79,7 @@ public class ServerConnection {
     private DataInputStream socketInStream = null;
     private int remoteId;
     private boolean useSenderThread;
-    protected LinkedBlockingQueue<byte[]> outQueue;// = new LinkedBlockingQueue<byte[]>(SEND_QUEUE_SIZE);
+    protected LinkedBlockingQueue<Frame> outQueue;// = new LinkedBlockingQueue<Frame>(SEND_QUEUE_SIZE);
     private LinkedBlockingQueue<SystemMessage> inQueue;
     
     private Lock connectLock = new ReentrantLock();
@@ -87,6 +89,9 @@ public class ServerConnection {
     
     private SecretKey secretKey = null;
 
+    // AWARE: traffic counters of this link
+    private final LinkStatistics statistics = new LinkStatistics();
+
     /**
      * Tulio A. Ribeiro
      * TLS vars. 
@@ -112,7 +117,7 @@ public class ServerConnection {
 
         this.inQueue = inQueue;
 
-        this.outQueue = new LinkedBlockingQueue<byte[]>(this.controller.getStaticConf().getOutQueueSize());
+        this.outQueue = new LinkedBlockingQueue<Frame>(this.controller.getStaticConf().getOutQueueSize());
 
         // Connect to the remote process or just wait for the connection?
      		if (isToConnect()) {
@@ -147,6 +152,16 @@ public class ServerConnection {
         }
         //******* EDUARDO END **************//
     }
+
+    /**
+     * Traffic counters of this connection
+     *
+     * @return counters
+     */
+    public LinkStatistics getStatistics() {
+        return statistics;
+    }
+
 /**
  * Tulio A. Ribeiro.
  * @return SecretKey
@@ -182,14 +197,29 @@ public class ServerConnection {
      * Used to send packets to the remote server.
      */
     public final void send(byte[] data) throws InterruptedException {
+        Frame frame = Frame.wrap(data);
+        send(frame);
+        frame.release();
+    }
+
+    /**
+     * Used to send a frame that may be shared with other connections. The
+     * connection holds its own reference to the frame until it is written.
+     */
+    final void send(Frame frame) throws InterruptedException {
     	if (useSenderThread) {
 			// only enqueue messages if there queue is not full
-			if (!outQueue.offer(data)) {
+			frame.retain();
+			if (!outQueue.offer(frame)) {
+				frame.release();
+				statistics.onDiscarded();
 				logger.debug("Out queue for " + remoteId + " full (message discarded).");
+			} else {
+				statistics.onEnqueued(outQueue.size());
 			}
 		} else {
 			sendLock.lock();
-			sendBytes(data);
+			sendBytes(frame);
 			sendLock.unlock();
 		}
     }
@@ -198,23 +228,17 @@ public class ServerConnection {
 	 * try to send a message through the socket if some problem is detected, a
 	 * reconnection is done
 	 */
-	private final void sendBytes(byte[] messageData) {
+	private final void sendBytes(Frame frame) {
 		boolean abort = false;
 		do {
 			if (abort)
 				return; // if there is a need to reconnect, abort this method
 			if (socket != null && socketOutStream != null) {
 				try {
-					// do an extra copy of the data to be sent, but on a single out stream write
-					byte[] data = new byte[5 + messageData.length];// without MAC
-					int value = messageData.length;
-
-					System.arraycopy(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
-							(byte) value }, 0, data, 0, 4);
-					System.arraycopy(messageData, 0, data, 4, messageData.length);
-					System.arraycopy(new byte[] { (byte) 0 }, 0, data, 4 + messageData.length, 1);
-
-					socketOutStream.write(data);
+					// the frame already holds length, data and trailer (without MAC), written at once
+					long start = System.nanoTime();
+					socketOutStream.write(frame.getBuffer(), 0, frame.getSize());
+					statistics.onWritten(frame.getSize(), System.nanoTime() - start);
 
 					return;
 				} catch (IOException ex) {
@@ -343,7 +367,11 @@ public class ServerConnection {
             } catch (InterruptedException ie) {
             }
 
-            outQueue.clear();
+            List<Frame> discarded = new ArrayList<>();
+            outQueue.drainTo(discarded);
+            for (Frame frame : discarded) {
+                frame.release();
+            }
             reconnect(null);
         }
     }
@@ -359,18 +387,19 @@ public class ServerConnection {
 
         @Override
         public void run() {
-            byte[] data = null;
+            Frame frame = null;
 
             while (doWork) {
                 //get a message to be sent
                 try {
-                    data = outQueue.poll(POOL_TIME, TimeUnit.MILLISECONDS);
+                    frame = outQueue.poll(POOL_TIME, TimeUnit.MILLISECONDS);
                 } catch (InterruptedException ex) {
                 }
 
-                if (data != null) {
+                if (frame != null) {
 					logger.trace("Sending data to, RemoteId:{}", remoteId);
-					sendBytes(data);
+					sendBytes(frame);
+					frame.release();
 				}
             }
 
@@ -405,6 +434,7 @@ public class ServerConnection {
 						} while (read < dataLength);
 
 						byte hasMAC = socketInStream.readByte();
+						statistics.onReceived(5 + dataLength);
 
 						logger.trace("Read: {}, HasMAC: {}", read, hasMAC);
 
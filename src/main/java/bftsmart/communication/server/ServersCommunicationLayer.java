@@ -15,11 +15,9 @@ limitations under the License.
 */
 package bftsmart.communication.server;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
@@ -30,6 +28,7 @@ import java.security.Security;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -132,6 +131,7 @@ public class ServersCommunicationLayer extends Thread {
         /** AWARE **/
         this.writeLatenciesMonitor = Monitor.getInstance(controller).getWriteLatencyMonitor();
         this.proposeLatenciesMonitor = Monitor.getInstance(controller).getProposeLatencyMonitor();
+        Monitor.getInstance(controller).setServersConn(this);
         /** END AWARE **/
 
 
@@ -261,6 +261,25 @@ public class ServersCommunicationLayer extends Thread {
         connectionsLock.unlock();
     }
 
+    /**
+     * Samples the traffic counters of the connections to all other replicas in the current view, see
+     * LinkStatistics.sample()
+     *
+     * @return traffic since the previous call, per remote replica id
+     */
+    public Map<Integer, LinkStatistics.Sample> sampleLinkStatistics() {
+        Map<Integer, LinkStatistics.Sample> samples = new HashMap<>();
+        connectionsLock.lock();
+        try {
+            for (Map.Entry<Integer, ServerConnection> connection : connections.entrySet()) {
+                samples.put(connection.getKey(), connection.getValue().getStatistics().sample());
+            }
+        } finally {
+            connectionsLock.unlock();
+        }
+        return samples;
+    }
+
     private ServerConnection getConnection(int remoteId) {
         connectionsLock.lock();
         ServerConnection ret = this.connections.get(remoteId);
@@ -294,14 +313,15 @@ public class ServersCommunicationLayer extends Thread {
         /** End AWARE **/
 
 
-        ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
+        // serialize the message once, into a frame shared by the connections to all targets
+        byte[] value = sm instanceof ConsensusMessage ? ((ConsensusMessage) sm).getValue() : null;
+        Frame frame;
         try {
-            new ObjectOutputStream(bOut).writeObject(sm);
+            frame = Frame.serialize(sm, value != null ? value.length : 0);
         } catch (IOException ex) {
             logger.error("Failed to serialize message", ex);
+            return;
         }
-
-        byte[] data = bOut.toByteArray();
         
         // this shuffling is done to prevent the replica with the lowest ID/index  from being always
         // the last one receiving the messages, which can result in that replica  to become consistently
@@ -315,14 +335,14 @@ public class ServersCommunicationLayer extends Thread {
                 /** AWARE **/
                 if (sm instanceof ConsensusMessage && ((ConsensusMessage) sm).getPaxosVerboseType().equals("WRITE") &&
                         writeLatenciesMonitor != null ) {
-                    Long timestamp = System.nanoTime();
+                    long timestamp = System.nanoTime();
                     writeLatenciesMonitor.addSentTime(target, ((ConsensusMessage) sm).getNumber(), timestamp, challenge);
                 }
                 if (proposeLatenciesMonitor != null && (
                         (sm instanceof ConsensusMessage && ((ConsensusMessage) sm).getPaxosVerboseType().equals("PROPOSE")) ||
                          sm instanceof MonitoringMessage && ((MonitoringMessage) sm).getPaxosVerboseType().equals("DUMMY_PROPOSE")))
                 {
-                    Long timestamp = System.nanoTime();
+                    long timestamp = System.nanoTime();
                     proposeLatenciesMonitor.addSentTime(target, ((ConsensusMessage) sm).getNumber(), timestamp, challenge);
                 }
                 /** End AWARE **/
@@ -333,12 +353,13 @@ public class ServersCommunicationLayer extends Thread {
 					logger.debug("Queueing (delivering) my own message, me:{}", target);
 				} else {
 					logger.debug("Sending message from:{} -> to:{}.", me,  target);
-					getConnection(target).send(data);
+					getConnection(target).send(frame);
 				}
 			} catch (InterruptedException ex) {
 				logger.error("Interruption while inserting message into inqueue", ex);
 			}
 		}
+        frame.release();
     }
 
     public void shutdown() {
@@ -36,6 +36,10 @@ public class ConsensusMessage extends SystemMessage {
 
     /** AWARE **/
     protected int challenge = -1; // only necessary for BFT
+    private byte[] measurements = null; // Piggybacked measurements of the sender
+
+    // Whether messages carry piggybacked measurements, configured the same way at all replicas
+    private static volatile boolean piggybackMeasurements = false;
 
     /**
      * Creates a consensus message. Not used. TODO: How about making it private?
@@ -114,6 +118,22 @@ public class ConsensusMessage extends SystemMessage {
             out.writeBoolean(false);
         }
 
+        /*** AWARE **/
+        if (piggybackMeasurements) {
+
+            if (measurements == null) {
+
+                out.writeInt(-1);
+
+            } else {
+
+                out.writeInt(measurements.length);
+                out.write(measurements);
+
+            }
+        }
+        /*** End AWARE **/
+
     }
 
     // Implemented method of the Externalizable interface
@@ -153,6 +173,28 @@ public class ConsensusMessage extends SystemMessage {
             proof = in.readObject();
         }
 
+        /*** AWARE **/
+        if (piggybackMeasurements) {
+
+            toRead = in.readInt();
+
+            if (toRead != -1) {
+
+                measurements = new byte[toRead];
+                in.readFully(measurements);
+
+            }
+        }
+        /*** End AWARE **/
+
+    }
+
+    /**
+     * Sets whether consensus messages carry piggybacked measurements. Must be set before messages are exchanged.
+     * @param piggyback True if measurements are piggybacked, as configured at all replicas
+     */
+    public static void setPiggybackMeasurements(boolean piggyback) {
+        piggybackMeasurements = piggyback;
     }
 
     /**
@@ -218,6 +260,20 @@ public class ConsensusMessage extends SystemMessage {
         this.challenge = challenge;
     }
 
+    /**
+     * Returns the measurements the sender piggybacked on this message. The receiver removes them once it processed
+     * them, so that messages that become part of a decision proof (e.g., ACCEPTs in CFT mode) are stored and forwarded
+     * without them.
+     * @return encoded measurements, or null if none are attached
+     */
+    public byte[] getMeasurements() {
+        return measurements;
+    }
+
+    public void setMeasurements(byte[] measurements) {
+        this.measurements = measurements;
+    }
+
     /**
      * Returns this message type as a verbose string
      * @return Message type
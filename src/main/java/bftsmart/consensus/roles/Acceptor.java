@@ -148,9 +148,18 @@ public final class Acceptor {
 	 * @param msg The message to be processed
 	 */
 	public final void processMessage(ConsensusMessage msg) {
+		/** AWARE **/
+		if (msg.getMeasurements() != null && controller.getStaticConf().isPiggybackMeasurements()) {
+			Monitor.getInstance(controller).getPiggyback().onReceive(msg.getSender(), msg.getMeasurements());
+		}
+		// Received ACCEPTs become part of decision proofs, which are sent to other replicas without measurements
+		msg.setMeasurements(null);
+		/** END AWARE **/
+
 		Consensus consensus = executionManager.getConsensus(msg.getNumber());
 
 		consensus.lock.lock();
+		boolean wasDecided = consensus.isDecided();
 		Epoch epoch = consensus.getEpoch(msg.getEpoch(), controller);
 		switch (msg.getType()) {
 		case MessageFactory.PROPOSE: {
@@ -166,6 +175,11 @@ public final class Acceptor {
 		}
 		}
 		consensus.lock.unlock();
+
+		// With pipelining, the leader already proposed the next consensus, start it right away
+		if (!wasDecided && consensus.isDecided() && controller.getStaticConf().getPipelineDepth() > 1) {
+			tomLayer.processOutOfContext();
+		}
 	}
 
 	/**
@@ -184,7 +198,9 @@ public final class Acceptor {
     		executePropose(epoch, msg.getValue());
     	} else {
     	    /**BEGIN AWARE */
-    	    if (epoch.getConsensus().getId() > 1 && epoch.getConsensus().getId() % this.controller.getStaticConf().getCalculationInterval() == 1) {
+    	    // Leaders also change in between calculation intervals if stragglers are demoted
+    	    if (epoch.getConsensus().getId() > 1 && (epoch.getConsensus().getId() % this.controller.getStaticConf().getCalculationInterval() == 1
+                    || this.controller.getStaticConf().getStragglerThreshold() > 0)) {
                 logger.debug("I remember Propose of " + msg.getSender() + " " + epoch.getConsensus().getId());
                 proposeRecvd[msg.getSender()] = msg; // Remember a non-leader proposal during a potential leader change
             } else {
@@ -240,8 +256,14 @@ public final class Acceptor {
 					epoch.getConsensus().getDecision().firstMessageProposed.writeSentTime = System.nanoTime();
 
 					logger.debug("Sending WRITE for cId:{}, I am:{}", cid, me);
-					communication.send(this.controller.getCurrentViewOtherAcceptors(),
-							factory.createWrite(cid, epoch.getTimestamp(), epoch.propValueHash));
+					ConsensusMessage write = factory.createWrite(cid, epoch.getTimestamp(), epoch.propValueHash);
+					if (controller.getStaticConf().isPiggybackMeasurements()) {
+						Monitor.getInstance(controller).getPiggyback().attach(write); // AWARE
+					}
+					communication.send(this.controller.getCurrentViewOtherAcceptors(), write);
+					if (controller.getStaticConf().isUseProcessingDelays()) {
+						Monitor.getInstance(controller).addProposeProcessingTime(System.nanoTime() - consensusStartTime); // AWARE
+					}
 
 					epoch.writeSent();
 
@@ -260,8 +282,14 @@ public final class Acceptor {
 					epoch.getConsensus().setQuorumWrites(epoch.propValueHash);
 					/*****************************************/
 
-                        communication.send(this.controller.getCurrentViewOtherAcceptors(),
- 	                    factory.createAccept(cid, epoch.getTimestamp(), epoch.propValueHash));
+                        ConsensusMessage accept = factory.createAccept(cid, epoch.getTimestamp(), epoch.propValueHash);
+                        if (controller.getStaticConf().isPiggybackMeasurements()) {
+                            Monitor.getInstance(controller).getPiggyback().attach(accept); // AWARE
+                        }
+                        communication.send(this.controller.getCurrentViewOtherAcceptors(), accept);
+                        if (controller.getStaticConf().isUseProcessingDelays()) {
+                            Monitor.getInstance(controller).addProposeProcessingTime(System.nanoTime() - consensusStartTime); // AWARE
+                        }
 
                         epoch.acceptSent();
                         computeAccept(cid, epoch, epoch.propValueHash);
@@ -335,6 +363,8 @@ public final class Acceptor {
 
                         epoch.getConsensus().getDecision().firstMessageProposed.acceptSentTime = System.nanoTime();
                 }
+                long quorumTime = System.nanoTime(); // AWARE: measures the processing delay until the ACCEPT is sent
+                boolean measure = controller.getStaticConf().isUseProcessingDelays();
 
                 ConsensusMessage cm = epoch.fetchAccept();
                 int[] targets = this.controller.getCurrentViewAcceptors();
@@ -348,6 +378,9 @@ public final class Acceptor {
 							cid);
 
 					communication.getServersConn().send(targets, cm, true);
+					if (measure) {
+						Monitor.getInstance(controller).addWriteProcessingTime(System.nanoTime() - quorumTime);
+					}
 
 				} else { // ... and if not, create the ACCEPT message again (with the correct value), and
 							// send it
@@ -362,6 +395,9 @@ public final class Acceptor {
 						insertProof(correctAccept, epoch.deserializedPropValue);
 
 						communication.getServersConn().send(targets, correctAccept, true);
+						if (measure) {
+							Monitor.getInstance(controller).addWriteProcessingTime(System.nanoTime() - quorumTime);
+						}
 
 					});
 				}
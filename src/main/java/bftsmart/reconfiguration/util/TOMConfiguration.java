@@ -37,6 +37,9 @@ public class TOMConfiguration extends Configuration {
     protected int timeoutHighMark;
     protected int replyVerificationTime;
     protected int maxBatchSize;
+    protected int pipelineDepth;
+    protected String adaptiveBatching;
+    protected int latencyBudget;
     protected int numberOfNonces;
     protected int inQueueSize;
     protected int outQueueSize;
@@ -82,12 +85,37 @@ public class TOMConfiguration extends Configuration {
     private int calculationInterval;
     private double monitoringOverhead;
     private double optimizationGoal;
+    private int searchThreads;
+    private int predictionCacheSize;
+    private int predictionCacheQuantum;
+    private boolean useBranchAndBound;
+    private int precomputationLead;
+    private String optimizationObjective;
+    private double throughputWeight;
+    private long defaultBandwidth;
+    private double tailPercentile;
+    private int monteCarloSamples;
+    private String heuristic;
+    private int heuristicChains;
+    private int heuristicEvaluations;
+    private double weightChangeCost;
+    private double leaderChangeCost;
+    private int amortizationHorizon;
+    private int hysteresisIntervals;
+    private double stragglerThreshold;
 
     // AWARE messages
     private boolean useDummyPropose;
     private boolean useProposeResponse;
     private boolean useWriteResponse;
     private int monitoringWindow;
+    private int monitoringHorizon;
+    private boolean useCompactMeasurements;
+    private double disseminationThreshold;
+    private int disseminationHeartbeat;
+    private boolean piggybackMeasurements;
+    private boolean useProcessingDelays;
+    private String latencyHistory;
     private int synchronisationPeriod;
     private int synchronisationDelay;
 
@@ -181,6 +209,22 @@ public class TOMConfiguration extends Configuration {
                 maxBatchSize = Integer.parseInt(s);
             }
 
+            s = (String) configs.remove("system.totalordermulticast.adaptiveBatching");
+            adaptiveBatching = s != null ? s.trim().toLowerCase() : "none";
+
+            s = (String) configs.remove("system.totalordermulticast.latencyBudget");
+            latencyBudget = s != null ? Integer.parseInt(s) : 100;
+
+            s = (String) configs.remove("system.totalordermulticast.pipelineDepth");
+            if (s == null) {
+                pipelineDepth = 1;
+            } else {
+                pipelineDepth = Integer.parseInt(s);
+                if (pipelineDepth < 1) {
+                    pipelineDepth = 1;
+                }
+            }
+
             s = (String) configs.remove("system.totalordermulticast.replayVerificationTime");
             if (s == null) {
                 replyVerificationTime = 0;
@@ -390,6 +434,27 @@ public class TOMConfiguration extends Configuration {
             s = (String) configs.remove("system.aware.monitoringWindow");
             monitoringWindow = s != null ? Integer.parseInt(s) : 0;
 
+            s = (String) configs.remove("system.aware.monitoringHorizon");
+            monitoringHorizon = s != null ? Integer.parseInt(s) : 30;
+
+            s = (String) configs.remove("system.aware.useCompactMeasurements");
+            useCompactMeasurements = s == null || Boolean.parseBoolean(s);
+
+            s = (String) configs.remove("system.aware.disseminationThreshold");
+            disseminationThreshold = s != null ? Double.parseDouble(s) : 0.00;
+
+            s = (String) configs.remove("system.aware.disseminationHeartbeat");
+            disseminationHeartbeat = s != null ? Integer.parseInt(s) : 30000;
+
+            s = (String) configs.remove("system.aware.piggybackMeasurements");
+            piggybackMeasurements = Boolean.parseBoolean(s);
+
+            s = (String) configs.remove("system.aware.useProcessingDelays");
+            useProcessingDelays = Boolean.parseBoolean(s);
+
+            s = (String) configs.remove("system.aware.latencyHistory");
+            latencyHistory = s != null && !s.isEmpty() ? s : null;
+
             s = (String) configs.remove("system.aware.useDynamicWeights");
             useDynamicWeights = Boolean.parseBoolean(s);
 
@@ -405,6 +470,67 @@ public class TOMConfiguration extends Configuration {
             s = (String) configs.remove("system.dv.optimizationGoal");
             optimizationGoal = s != null ? Double.parseDouble(s) : 1.00;
 
+            s = (String) configs.remove("system.aware.searchThreads");
+            searchThreads = s != null ? Integer.parseInt(s) : 1;
+
+            s = (String) configs.remove("system.aware.predictionCacheSize");
+            predictionCacheSize = s != null ? Integer.parseInt(s) : 0;
+
+            s = (String) configs.remove("system.aware.predictionCacheQuantum");
+            predictionCacheQuantum = s != null ? Integer.parseInt(s) : 1000;
+
+            s = (String) configs.remove("system.aware.useBranchAndBound");
+            useBranchAndBound = Boolean.parseBoolean(s);
+
+            s = (String) configs.remove("system.aware.precomputationLead");
+            precomputationLead = s != null ? Integer.parseInt(s) : 0;
+            if (precomputationLead > 0 && precomputationLead >= calculationInterval) {
+                // The next search would start before the pending one is applied; init() runs before the logger
+                // of this class is initialized
+                LoggerFactory.getLogger(this.getClass()).error("system.aware.precomputationLead must be smaller"
+                        + " than system.aware.calculationInterval, searching inline");
+                precomputationLead = 0;
+            }
+
+            s = (String) configs.remove("system.aware.objective");
+            optimizationObjective = s != null ? s.trim().toLowerCase() : "latency";
+
+            s = (String) configs.remove("system.aware.throughputWeight");
+            throughputWeight = s != null ? Double.parseDouble(s) : 0.5;
+
+            s = (String) configs.remove("system.aware.defaultBandwidth");
+            defaultBandwidth = s != null ? Long.parseLong(s) : 12500000L;
+
+            s = (String) configs.remove("system.aware.tailPercentile");
+            tailPercentile = s != null ? Double.parseDouble(s) : 0.0;
+
+            s = (String) configs.remove("system.aware.monteCarloSamples");
+            monteCarloSamples = s != null ? Integer.parseInt(s) : 100;
+
+            s = (String) configs.remove("system.aware.heuristic");
+            heuristic = s != null ? s.trim().toLowerCase() : "annealing";
+
+            s = (String) configs.remove("system.aware.heuristicChains");
+            heuristicChains = s != null ? Integer.parseInt(s) : 1;
+
+            s = (String) configs.remove("system.aware.heuristicEvaluations");
+            heuristicEvaluations = s != null ? Integer.parseInt(s) : 0;
+
+            s = (String) configs.remove("system.aware.weightChangeCost");
+            weightChangeCost = s != null ? Double.parseDouble(s) : 0.0;
+
+            s = (String) configs.remove("system.aware.leaderChangeCost");
+            leaderChangeCost = s != null ? Double.parseDouble(s) : 0.0;
+
+            s = (String) configs.remove("system.aware.amortizationHorizon");
+            amortizationHorizon = s != null ? Integer.parseInt(s) : 0;
+
+            s = (String) configs.remove("system.aware.hysteresisIntervals");
+            hysteresisIntervals = s != null ? Integer.parseInt(s) : 1;
+
+            s = (String) configs.remove("system.aware.stragglerThreshold");
+            stragglerThreshold = s != null ? Double.parseDouble(s) : 0.00;
+
             s = (String) configs.remove("system.aware.useDummyPropose");
             useDummyPropose = Boolean.parseBoolean(s);
 
@@ -538,6 +664,18 @@ s = (String) configs.remove("system.client.invokeOrderedTimeout");
         return maxBatchSize;
     }
 
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public String getAdaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    public int getLatencyBudget() {
+        return latencyBudget;
+    }
+
     public boolean isShutdownHookEnabled() {
         return shutdownHookEnabled;
     }
@@ -715,6 +853,34 @@ s = (String) configs.remove("system.client.invokeOrderedTimeout");
         return this.monitoringWindow;
     }
 
+    public int getMonitoringHorizon() {
+        return this.monitoringHorizon;
+    }
+
+    public boolean isUseCompactMeasurements() {
+        return this.useCompactMeasurements;
+    }
+
+    public double getDisseminationThreshold() {
+        return this.disseminationThreshold;
+    }
+
+    public int getDisseminationHeartbeat() {
+        return this.disseminationHeartbeat;
+    }
+
+    public boolean isPiggybackMeasurements() {
+        return this.piggybackMeasurements;
+    }
+
+    public boolean isUseProcessingDelays() {
+        return this.useProcessingDelays;
+    }
+
+    public String getLatencyHistory() {
+        return this.latencyHistory;
+    }
+
     public boolean isUseLeaderSelection() {
         return useLeaderSelection;
     }
@@ -727,6 +893,78 @@ s = (String) configs.remove("system.client.invokeOrderedTimeout");
         this.optimizationGoal = optimizationGoal;
     }
 
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    public int getPredictionCacheSize() {
+        return predictionCacheSize;
+    }
+
+    public int getPredictionCacheQuantum() {
+        return predictionCacheQuantum;
+    }
+
+    public boolean isUseBranchAndBound() {
+        return useBranchAndBound;
+    }
+
+    public int getPrecomputationLead() {
+        return precomputationLead;
+    }
+
+    public String getOptimizationObjective() {
+        return optimizationObjective;
+    }
+
+    public double getThroughputWeight() {
+        return throughputWeight;
+    }
+
+    public long getDefaultBandwidth() {
+        return defaultBandwidth;
+    }
+
+    public double getTailPercentile() {
+        return tailPercentile;
+    }
+
+    public int getMonteCarloSamples() {
+        return monteCarloSamples;
+    }
+
+    public String getHeuristic() {
+        return heuristic;
+    }
+
+    public int getHeuristicChains() {
+        return heuristicChains;
+    }
+
+    public int getHeuristicEvaluations() {
+        return heuristicEvaluations;
+    }
+
+    public double getWeightChangeCost() {
+        return weightChangeCost;
+    }
+
+    public double getLeaderChangeCost() {
+        return leaderChangeCost;
+    }
+
+    public int getAmortizationHorizon() {
+        return amortizationHorizon;
+    }
+
+    public int getHysteresisIntervals() {
+        return hysteresisIntervals;
+    }
+
+    public double getStragglerThreshold() {
+        return stragglerThreshold;
+    }
+
     public int getSynchronisationPeriod() {
         return synchronisationPeriod;
     }
@@ -36,6 +36,7 @@ public abstract class SMMessage extends SystemMessage {
     private int type; // Message type
     private int regency; // Current regency
     private int leader; // Current leader
+    private byte[] awareState; // Replicated AWARE state after consensus cid, null if not available
     public final boolean TRIGGER_SM_LOCALLY; // indicates that the replica should
                                              // initiate the SM protocol locally
 
@@ -112,6 +113,22 @@ public abstract class SMMessage extends SystemMessage {
     public int getLeader() {
         return leader;
     }
+
+    /**
+     * Retrieves the replicated AWARE state after the consensus up to which the sender needs to be updated
+     * @return The serialized state, or null if the sender did not attach it
+     */
+    public byte[] getAwareState() {
+        return awareState;
+    }
+
+    /**
+     * Attaches the replicated AWARE state after the consensus up to which the sender needs to be updated
+     * @param awareState The serialized state
+     */
+    public void setAwareState(byte[] awareState) {
+        this.awareState = awareState;
+    }
     
     @Override
     public void writeExternal(ObjectOutput out) throws IOException{
@@ -123,6 +140,7 @@ public abstract class SMMessage extends SystemMessage {
         out.writeInt(leader);
         out.writeObject(state);
         out.writeObject(view);
+        out.writeObject(awareState);
     }
 
     @Override
@@ -135,5 +153,6 @@ public abstract class SMMessage extends SystemMessage {
         leader = in.readInt();
         state = (ApplicationState) in.readObject();
         view = (View) in.readObject();
+        awareState = (byte[]) in.readObject();
     }
 }
@@ -57,6 +57,7 @@ public abstract class StateManager {
     protected HashMap<Integer, Integer> senderRegencies = null;
     protected HashMap<Integer, Integer> senderLeaders = null;
     protected HashMap<Integer, CertifiedDecision> senderProofs = null;
+    protected HashMap<Integer, byte[]> senderAwareStates = null;
 
     protected boolean appStateOnly;
     protected int waitingCID = -1;
@@ -73,6 +74,7 @@ public abstract class StateManager {
         senderRegencies = new HashMap<>();
         senderLeaders = new HashMap<>();
         senderProofs = new HashMap<>();
+        senderAwareStates = new HashMap<>();
     }
 
     protected int getReplies() {
@@ -122,6 +124,23 @@ public abstract class StateManager {
         return result;
     }
     
+    // gets the AWARE state sent by more than f replicas, or null if there is none
+    protected byte[] getAwareState() {
+        Collection<byte[]> states = senderAwareStates.values();
+        for (byte[] s1 : states) {
+            int counter = 0;
+            for (byte[] s2 : states) {
+                if (s1 != null && Arrays.equals(s1, s2)) {
+                    counter++;
+                }
+            }
+            if (counter > SVController.getCurrentViewF()) {
+                return s1;
+            }
+        }
+        return null;
+    }
+
     // check if the consensus messages are consistent without checking the mac/signatures
     // if it is consistent, it returns the respective consensus ID; otherwise, returns -1
     private int proofIsConsistent(Set<ConsensusMessage> proof) {
@@ -171,6 +190,7 @@ public abstract class StateManager {
         senderRegencies.clear();
         senderViews.clear();
         senderProofs.clear();
+        senderAwareStates.clear();
         state = null;
     }
 
@@ -26,6 +26,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.locks.ReentrantLock;
 
+import bftsmart.aware.decisions.AwareController;
 import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.reconfiguration.views.View;
 import bftsmart.statemanagement.ApplicationState;
@@ -135,6 +136,7 @@ public class DurableStateManager extends StateManager {
                     TOMUtil.SM_REPLY, cstConfig, null,
                     SVController.getCurrentView(), tomLayer.getSynchronizer().getLCManager().getLastReg(),
                     tomLayer.execManager.getCurrentLeader());
+            reply.setAwareState(AwareController.getInstance(SVController, execManager).getState(msg.getCID()));
 
             tomLayer.getCommunication().send(targets, reply);
             
@@ -219,6 +221,7 @@ public class DurableStateManager extends StateManager {
 
                 if (stateReceived instanceof CSTState) {
                     senderStates.put(reply.getSender(), stateReceived);
+                    senderAwareStates.put(reply.getSender(), reply.getAwareState());
                     if (reply.getSender() == cstRequest.getCheckpointReplica()) {
                         this.stateCkp = (CSTState) stateReceived;
                     }
@@ -354,7 +357,7 @@ public class DurableStateManager extends StateManager {
 
                         // this makes the isRetrievingState() evaluates to false
                         waitingCID = -1;
-                        dt.update(stateUpper);
+                        dt.update(stateUpper, getAwareState());
 
                         // Deal with stopped messages that may come from
                         // synchronization phase
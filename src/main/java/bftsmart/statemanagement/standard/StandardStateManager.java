@@ -15,6 +15,7 @@
  */
 package bftsmart.statemanagement.standard;
 
+import bftsmart.aware.decisions.AwareController;
 import bftsmart.statemanagement.StateManager;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -142,6 +143,7 @@ public class StandardStateManager extends StateManager {
             SMMessage smsg = new StandardSMMessage(SVController.getStaticConf().getProcessId(),
                     msg.getCID(), TOMUtil.SM_REPLY, -1, thisState, SVController.getCurrentView(),
                     tomLayer.getSynchronizer().getLCManager().getLastReg(), tomLayer.execManager.getCurrentLeader());
+            smsg.setAwareState(AwareController.getInstance(SVController, execManager).getState(msg.getCID()));
 
             logger.info("Sending state...");
             tomLayer.getCommunication().send(targets, smsg);
@@ -192,6 +194,7 @@ public class StandardStateManager extends StateManager {
                 }
 
                 senderStates.put(msg.getSender(), msg.getState());
+                senderAwareStates.put(msg.getSender(), msg.getAwareState());
 
                 logger.debug("Verifying more than F replies");
                 if (enoughReplies()) {
@@ -272,7 +275,7 @@ public class StandardStateManager extends StateManager {
 
                         dt.pauseDecisionDelivery();
                         waitingCID = -1;
-                        dt.update(state);
+                        dt.update(state, getAwareState());
 
                         if (!appStateOnly && execManager.stopped()) {
                             Queue<ConsensusMessage> stoppedMsgs = execManager.getStoppedMsgs();
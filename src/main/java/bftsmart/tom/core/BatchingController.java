@@ -0,0 +1,122 @@
+package bftsmart.tom.core;
+
+import bftsmart.reconfiguration.ServerViewController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tunes the batch size and the batch timeout of the leader at runtime.
+ *
+ * The controller estimates the arrival rate of client requests and the consensus latency (from proposing a batch to
+ * deciding it) with exponentially weighted moving averages. From these, it derives how long the leader may wait for a
+ * batch to fill:
+ * - in the latency mode, the leader may wait as long as the latency budget leaves after a consensus, but not longer
+ *   than one consensus, during which requests accumulate anyway;
+ * - in the throughput mode, the leader always waits up to one consensus.
+ * The batch size is set to the number of requests expected to arrive in a consensus plus the waiting time, bounded by
+ * system.totalordermulticast.maxbatchsize, so that a batch is full when the waiting time is over. The batch timeout,
+ * after which a batch is proposed if no further request arrives, is set to the waiting time (-1 if waiting does not
+ * pay off).
+ *
+ * Only the leader batches, and batch sizes are not checked by the other replicas, hence the tuned values do not have
+ * to be the same in all replicas.
+ *
+ * @author cb
+ */
+public class BatchingController {
+
+    private enum Mode {NONE, LATENCY, THROUGHPUT}
+
+    private static final double ALPHA = 0.20; // weight of a new sample in the moving averages
+    private static final long MIN_TIMEOUT = 1; // ms, shorter waits are not worth a timer round
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Mode mode;
+    private final int maxBatchSize; // configured upper bound
+    private final double latencyBudget; // ms
+
+    // Moving averages
+    private double arrivalRate = -1; // requests per ms
+    private double consensusLatency = -1; // ms
+    private long lastArrivals = 0;
+    private long lastUpdate = -1;
+
+    // Tuned values
+    private volatile int batchSize;
+    private volatile int batchTimeout;
+
+    public BatchingController(ServerViewController controller) {
+        switch (controller.getStaticConf().getAdaptiveBatching()) {
+            case "latency":
+                this.mode = Mode.LATENCY;
+                break;
+            case "throughput":
+                this.mode = Mode.THROUGHPUT;
+                break;
+            default:
+                this.mode = Mode.NONE;
+        }
+        this.maxBatchSize = controller.getStaticConf().getMaxBatchSize();
+        this.latencyBudget = controller.getStaticConf().getLatencyBudget();
+        this.batchSize = maxBatchSize;
+        this.batchTimeout = controller.getStaticConf().getBatchTimeout();
+    }
+
+    /**
+     * Updates the estimates after this replica led a consensus and re-tunes the batch size and timeout
+     *
+     * @param arrivals total number of client requests received so far
+     * @param latency  latency of the consensus from proposing to deciding (ns)
+     */
+    public synchronized void update(long arrivals, long latency) {
+        if (mode == Mode.NONE) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastUpdate >= 0 && now > lastUpdate) {
+            double rate = (arrivals - lastArrivals) / ((now - lastUpdate) / 1000000.00);
+            arrivalRate = arrivalRate < 0 ? rate : ALPHA * rate + (1 - ALPHA) * arrivalRate;
+        }
+        lastArrivals = arrivals;
+        lastUpdate = now;
+        if (latency > 0) {
+            double ms = latency / 1000000.00;
+            consensusLatency = consensusLatency < 0 ? ms : ALPHA * ms + (1 - ALPHA) * consensusLatency;
+        }
+        if (arrivalRate < 0 || consensusLatency < 0) {
+            return;
+        }
+
+        double wait = mode == Mode.THROUGHPUT ? consensusLatency :
+                Math.max(0.00, Math.min(latencyBudget - consensusLatency, consensusLatency));
+        batchSize = (int) Math.max(1, Math.min(maxBatchSize,
+                Math.ceil(arrivalRate * (consensusLatency + wait))));
+        batchTimeout = wait < MIN_TIMEOUT ? -1 : (int) Math.round(wait);
+
+        logger.debug("Arrival rate {} req/ms, consensus latency {} ms: batch size {}, batch timeout {} ms",
+                arrivalRate, consensusLatency, batchSize, batchTimeout);
+    }
+
+    public boolean isAdaptive() {
+        return mode != Mode.NONE;
+    }
+
+    /**
+     * Maximum number of requests in a batch
+     *
+     * @return batch size
+     */
+    public int getMaxBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Time (ms) without new requests after which the leader proposes a batch that is not full
+     *
+     * @return batch timeout, -1 if the leader proposes as soon as there are requests
+     */
+    public int getBatchTimeout() {
+        return batchTimeout;
+    }
+}
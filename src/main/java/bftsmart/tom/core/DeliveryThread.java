@@ -191,13 +191,14 @@ public final class DeliveryThread extends Thread {
 		canDeliver.signalAll();
 	}
 
-	public void update(ApplicationState state) {
+	public void update(ApplicationState state, byte[] awareState) {
 
 		int lastCID = recoverer.setState(state);
 
 		// set this decision as the last one from this replica
 		logger.info("Setting last CID to " + lastCID);
 		tomLayer.setLastExec(lastCID);
+		AwareController.getInstance(controller, tomLayer.execManager).setState(lastCID, awareState); // AWARE
 
 		// define the last stable consensus... the stable consensus can
 		// be removed from the leaderManager and the executionManager
@@ -305,6 +306,7 @@ public final class DeliveryThread extends Thread {
 						 *  AWARE
 						 */
 						Monitor.getInstance(controller).handleMonitoringMessages(d);
+						AwareController.getInstance(controller, tomLayer.execManager).observe(d);
 						AwareController.getInstance(controller, tomLayer.execManager).optimize(d.getConsensusId());
 						/**
 						 **/
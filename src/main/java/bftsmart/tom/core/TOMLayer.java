@@ -25,6 +25,7 @@ import bftsmart.consensus.Decision;
 import bftsmart.consensus.Epoch;
 import bftsmart.consensus.roles.Acceptor;
 import bftsmart.aware.messages.MonitoringMessageFactory;
+import bftsmart.aware.monitoring.Monitor;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.statemanagement.StateManager;
 import bftsmart.tom.ServiceReplica;
@@ -72,6 +73,7 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
     //thread pool used to paralelise verification of requests contained in a batch
     private final ExecutorService verifierExecutor;
+    private final int verifierThreads;
 
     /**
      * Manage timers for pending requests
@@ -80,6 +82,9 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
     private long lastRequest = -1;
 
+    // Batch size and batch timeout, tuned at runtime if adaptive batching is enabled
+    private final BatchingController batching;
+
     /**
      * Store requests received but still not ordered
      */
@@ -90,6 +95,10 @@ public final class TOMLayer extends Thread implements RequestReceiver {
     private int inExecution = -1;
     private int lastExecuted = -1;
 
+    // Highest consensus proposed by this replica and the regency it was proposed in, used for pipelining
+    private int lastProposed = -1;
+    private int lastProposedReg = -1;
+
     public MessageDigest md;
     private Signature engine;
 
@@ -159,6 +168,7 @@ public final class TOMLayer extends Thread implements RequestReceiver {
         int nWorkers = this.controller.getStaticConf().getNumNettyWorkers();
         nWorkers = nWorkers > 0 ? nWorkers : Runtime.getRuntime().availableProcessors();
         this.verifierExecutor = Executors.newWorkStealingPool(nWorkers);
+        this.verifierThreads = nWorkers;
 
         //do not create a timer manager if the timeout is 0
         if (this.controller.getStaticConf().getRequestTimeout() == 0) {
@@ -190,23 +200,27 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
         this.syncher = new Synchronizer(this); // create synchronizer
 
-        if (controller.getStaticConf().getBatchTimeout() > -1) {
+        this.batching = new BatchingController(this.controller);
+
+        if (controller.getStaticConf().getBatchTimeout() > -1 || batching.isAdaptive()) {
 
-            //timeout for batch
+            //timeout for batch, checked every millisecond if the timeout is tuned at runtime
             Timer batchTimer = new Timer();
             batchTimer.scheduleAtFixedRate(new TimerTask() {
                 @Override
                 public void run() {
 
-                    if (clientsManager.havePendingRequests() &&
-                            (System.currentTimeMillis() - lastRequest) >= controller.getStaticConf().getBatchTimeout()) {
+                    int batchTimeout = batching.getBatchTimeout();
+                    if (batchTimeout > -1 &&
+                            (System.currentTimeMillis() - lastRequest) >= batchTimeout &&
+                            clientsManager.havePendingRequests()) {
 
                         logger.debug("Signaling proposer thread!!");
                         haveMessages();
                     }
                 }
 
-            }, 0, controller.getStaticConf().getBatchTimeout());
+            }, 0, batching.isAdaptive() ? 1 : controller.getStaticConf().getBatchTimeout());
         }
 
         // AWARE
@@ -345,11 +359,11 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
             if (clientsManager.requestReceived(msg, true, communication)) {
 
-                if(controller.getStaticConf().getBatchTimeout() == -1) {
+                if(batching.getBatchTimeout() == -1) {
                     haveMessages();
                 } else {
 
-                    if (clientsManager.countPendingRequests() < controller.getStaticConf().getMaxBatchSize()) {
+                    if (clientsManager.countPendingRequests() < batching.getMaxBatchSize()) {
 
                         lastRequest = System.currentTimeMillis();
 
@@ -374,7 +388,7 @@ public final class TOMLayer extends Thread implements RequestReceiver {
      */
     public byte[] createPropose(Decision dec) {
         // Retrieve a set of pending requests from the clients manager
-        RequestList pendingRequests = clientsManager.getPendingRequests();
+        RequestList pendingRequests = clientsManager.getPendingRequests(batching.getMaxBatchSize());
 
         logger.debug("Number of pending requets to propose in consensus {}: {}", dec.getConsensusId(), pendingRequests.size());
 
@@ -390,7 +404,11 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
         logger.debug("Creating a PROPOSE with " + numberOfMessages + " msgs");
 
-        return bb.makeBatch(pendingRequests, numberOfNonces, System.currentTimeMillis(), controller.getStaticConf().getUseSignatures() == 1);
+        // AWARE: measurements piggybacked on consensus messages are proposed as batch metadata
+        byte[] metadata = controller.getStaticConf().isPiggybackMeasurements()
+                ? Monitor.getInstance(controller).getPiggyback().drain() : null;
+
+        return bb.makeBatch(pendingRequests, numberOfNonces, System.currentTimeMillis(), controller.getStaticConf().getUseSignatures() == 1, metadata);
     }
 
 
@@ -423,10 +441,10 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
             if (!doWork) break;
 
-            // blocks until the current consensus finishes
+            // blocks until the current consensus finishes (or the pipeline has room for another one)
             proposeLock.lock();
 
-            if (getInExec() != -1) { //there is some consensus running
+            if (nextProposal() == -1) { //there is some consensus running
                 logger.debug("Waiting for consensus " + getInExec() + " termination.");
                 canPropose.awaitUninterruptibly();
             }
@@ -439,8 +457,8 @@ public final class TOMLayer extends Thread implements RequestReceiver {
             // blocks until there are requests to be processed/ordered
             messagesLock.lock();
             if (!clientsManager.havePendingRequests() ||
-                    (controller.getStaticConf().getBatchTimeout() > -1
-                    		&& clientsManager.countPendingRequests() < controller.getStaticConf().getMaxBatchSize())) {
+                    (batching.getBatchTimeout() > -1
+                    		&& clientsManager.countPendingRequests() < batching.getMaxBatchSize())) {
                 logger.debug("Waiting for enough requests");
                 haveMessages.awaitUninterruptibly();
                 logger.debug("Got enough requests");
@@ -460,13 +478,23 @@ public final class TOMLayer extends Thread implements RequestReceiver {
             }
             /** End AWARE **/
 
+            int execId = nextProposal();
             if ((execManager.getCurrentLeader() == this.controller.getStaticConf().getProcessId()) && //I'm the leader
                     (clientsManager.havePendingRequests()) && //there are messages to be ordered
-                    (getInExec() == -1)) { //there is no consensus in execution
+                    (execId != -1)) { //there is no consensus in execution, or the pipeline has room
+
+                if (execId > getLastExec() + 1) {
+                    // Proposed ahead, the acceptors keep it out of context until they decided the previous consensus
+                    logger.debug("I am the leader and propose consensus " + execId + " ahead");
+                    Decision dec = execManager.getConsensus(execId).getDecision();
+                    proposed(execId);
+                    execManager.getProposer().startConsensus(execId, createPropose(dec));
+                    continue;
+                }
 
                 // Sets the current consensus
-                int execId = getLastExec() + 1;
                 setInExec(execId);
+                proposed(execId);
 
                 Decision dec = execManager.getConsensus(execId).getDecision();
 
@@ -498,6 +526,56 @@ public final class TOMLayer extends Thread implements RequestReceiver {
         logger.info("TOMLayer stopped.");
     }
 
+    /**
+     * Determines the consensus this replica may propose next, if it is the leader. Without pipelining, this is the
+     * consensus after the last executed one, as soon as no consensus is running. With a pipeline depth k, the leader
+     * may also propose up to k-1 consensus instances ahead of the running one. Acceptors keep such proposals out of
+     * context and process them once they decided the previous instance, hence the consensus and leader change
+     * protocols are unchanged: they still run one instance at a time, and a proposal of a leader that has been
+     * replaced meanwhile is ignored.
+     *
+     * The leader does not propose ahead during a leader change, while retrieving the state, nor beyond the end of an
+     * AWARE calculation interval, after which the leader may change. With straggler detection, the leader may change
+     * at any consensus instance, hence it does not propose ahead at all.
+     *
+     * @return ID of the consensus to propose, or -1 if this replica has to wait
+     */
+    private int nextProposal() {
+        int last = getLastExec();
+        int inExec = getInExec();
+        int depth = controller.getStaticConf().getPipelineDepth();
+
+        if (depth <= 1 || controller.getCurrentViewN() == 1 || isRetrievingState()
+                || (requestsTimer != null && isChangingLeader())
+                || (controller.getStaticConf().isUseDynamicWeights()
+                && controller.getStaticConf().getStragglerThreshold() > 0)) {
+            return inExec == -1 ? last + 1 : -1;
+        }
+
+        // Proposals made in an earlier regency have been replaced by the synchronization phase
+        int next = lastProposedReg == syncher.getLCManager().getLastReg() && lastProposed > last ?
+                lastProposed + 1 : last + 1;
+        if (inExec != -1 && next <= inExec) {
+            next = inExec + 1;
+        }
+        if (next - last > depth) {
+            return -1;
+        }
+        if (next > last + 1 && controller.getStaticConf().isUseDynamicWeights()) {
+            int interval = controller.getStaticConf().getCalculationInterval();
+            int boundary = last + (interval - last % interval) % interval; // first boundary >= last
+            if (boundary < next) {
+                return -1;
+            }
+        }
+        return next;
+    }
+
+    private void proposed(int cid) {
+        lastProposed = cid;
+        lastProposedReg = syncher.getLCManager().getLastReg();
+    }
+
     /**
      * Called by the current consensus instance, to notify the TOM layer that
      * a value was decided
@@ -509,6 +587,13 @@ public final class TOMLayer extends Thread implements RequestReceiver {
         dec.setRegency(syncher.getLCManager().getLastReg());
         dec.setLeader(execManager.getCurrentLeader());
 
+        // Re-tune batching with the latency of the consensus, if this replica proposed it
+        TOMMessage first = dec.firstMessageProposed;
+        if (batching.isAdaptive() && dec.getLeader() == controller.getStaticConf().getProcessId()
+                && first != null && first.consensusStartTime > 0 && first.decisionTime > first.consensusStartTime) {
+            batching.update(clientsManager.getArrivals(), first.decisionTime - first.consensusStartTime);
+        }
+
         this.dt.delivery(dec); // Sends the decision to the delivery thread
     }
 
@@ -539,35 +624,13 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
             if (addToClientManager) {
 
-                //use parallelization to validate the request
-                final CountDownLatch latch = new CountDownLatch(requests.length);
+                //validate the requests in parallel, without holding any client lock
+                verifyRequests(requests);
 
+                //notifies the client manager that the requests were received; this depends on the
+                //order of the requests of each client, hence it is done serially in batch order
                 for (TOMMessage request : requests) {
-
-                    verifierExecutor.submit(() -> {
-                        try {
-
-                            //notifies the client manager that this request was received and get
-                            //the result of its validation
-                            request.isValid = clientsManager.requestReceived(request, false);
-                            if (Thread.holdsLock(clientsManager.getClientsLock())) clientsManager.getClientsLock().unlock();
-
-                        }
-                        catch (Exception e) {
-
-                            logger.error("Error while validating requests", e);
-                            if (Thread.holdsLock(clientsManager.getClientsLock())) clientsManager.getClientsLock().unlock();
-
-                        }
-
-                        latch.countDown();
-                    });
-                }
-
-                latch.await();
-
-                for (TOMMessage request : requests) {
-                    if (!request.isValid) {
+                    if (!request.isValid || !clientsManager.requestReceived(request, false)) {
                         logger.warn("Request {} could not be added to the pending messages queue of its respective client", request);
                         return null;
                     }
@@ -586,6 +649,40 @@ public final class TOMLayer extends Thread implements RequestReceiver {
         }
     }
 
+    /**
+     * Verifies the signatures and the external validity of proposed requests with the verifier threads. The requests
+     * are split into one slice per thread instead of one task per request, which would cost more to schedule than
+     * to verify for small requests.
+     *
+     * @param requests requests of a proposed value, request.isValid is set for each of them
+     */
+    private void verifyRequests(TOMMessage[] requests) throws InterruptedException {
+        int slices = Math.min(requests.length, verifierThreads);
+        if (slices <= 1) {
+            for (TOMMessage request : requests) {
+                clientsManager.verifyRequest(request);
+            }
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            final int first = slice;
+            verifierExecutor.submit(() -> {
+                try {
+                    for (int i = first; i < requests.length; i += slices) {
+                        clientsManager.verifyRequest(requests[i]);
+                    }
+                } catch (Exception e) {
+                    logger.error("Error while validating requests", e);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+    }
+
     public void forwardRequestToLeader(TOMMessage request) {
         int leaderId = execManager.getCurrentLeader();
         if (this.controller.isCurrentViewMember(leaderId)) {
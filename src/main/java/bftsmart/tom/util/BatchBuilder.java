@@ -46,7 +46,7 @@ public final class BatchBuilder {
 
         /** build buffer */
 	private byte[] createBatch(long timestamp, int numberOfNonces, long seed, int numberOfMessages, int totalMessagesSize,
-			boolean useSignatures, byte[][] messages, byte[][] signatures) {
+			boolean useSignatures, byte[][] messages, byte[][] signatures, byte[] metadata) {
             
                 int sigsSize = 0;
                 
@@ -64,7 +64,8 @@ public final class BatchBuilder {
 				(numberOfNonces > 0 ? 8 : 0) + //seed if needed
 				(Integer.BYTES * numberOfMessages) + // messages length
                                 sigsSize + // signatures size
-				totalMessagesSize; //size of all msges
+				totalMessagesSize + //size of all msges
+				(metadata != null ? metadata.length : 0); //AWARE: metadata after the messages, if any
 
 		ByteBuffer  proposalBuffer = ByteBuffer.allocate(size);
 
@@ -82,6 +83,10 @@ public final class BatchBuilder {
 			putMessage(proposalBuffer,messages[i], useSignatures, signatures[i]);
 		}
 
+		if (metadata != null) {
+			proposalBuffer.put(metadata);
+		}
+
 		return proposalBuffer.array();
 	}
           
@@ -100,6 +105,16 @@ public final class BatchBuilder {
 	}
 
 	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long timestamp, boolean useSignatures) {
+		return makeBatch(msgs, numNounces, timestamp, useSignatures, null);
+	}
+
+	/**
+	 * AWARE: Builds a batch that carries proposal metadata after the messages
+	 *
+	 * @param metadata bytes appended to the batch, see BatchReader.readMetadata; null for none
+	 */
+	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long timestamp, boolean useSignatures,
+			byte[] metadata) {
 
 		int numMsgs = msgs.size();
 		int totalMessageSize = 0; //total size of the messages being batched
@@ -122,7 +137,7 @@ public final class BatchBuilder {
 
 		// return the batch
 		return createBatch(timestamp, numNounces,rnd.nextLong(), numMsgs, totalMessageSize,
-				useSignatures, messages, signatures);
+				useSignatures, messages, signatures, metadata);
 
 	}
 	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long seed, long timestamp, boolean useSignatures) {
@@ -148,7 +163,7 @@ public final class BatchBuilder {
 
 		// return the batch
 		return createBatch(timestamp, numNounces,seed, numMsgs, totalMessageSize,
-				useSignatures, messages, signatures);
+				useSignatures, messages, signatures, null);
 
 	}
 }
@@ -102,4 +102,34 @@ public final class BatchReader {
         }
         return requests;
     }
+
+    /**
+     * AWARE: Reads the metadata the leader appended after the messages of a batch, without deserializing the messages.
+     * The metadata has to be self-delimiting, since it is followed by the unused bytes at the end of every batch.
+     *
+     * @param batch         batch
+     * @param useSignatures whether the messages of the batch are followed by signatures
+     * @return metadata, or null if the batch does not carry any
+     */
+    public static byte[] readMetadata(byte[] batch, boolean useSignatures) {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        buffer.getLong(); // timestamp
+        if (buffer.getInt() > 0) {
+            buffer.getLong(); // seed
+        }
+        int numberOfMessages = buffer.getInt();
+        for (int i = 0; i < numberOfMessages; i++) {
+            buffer.position(buffer.position() + buffer.getInt());
+            if (useSignatures) {
+                buffer.position(buffer.position() + buffer.getInt());
+            }
+        }
+        // BatchBuilder reserves 4 bytes more than the header needs, every batch ends with them
+        if (buffer.remaining() <= Integer.BYTES) {
+            return null;
+        }
+        byte[] metadata = new byte[buffer.remaining()];
+        buffer.get(metadata);
+        return metadata;
+    }
 }